@@ -0,0 +1,152 @@
+package com.maki.benchmarks;
+
+import com.maki.CharClass;
+import com.maki.Parser;
+import com.maki.ParserInput;
+import com.maki.SpanBuffer;
+import com.maki.StringInput;
+import com.maki.Utf8Input;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One benchmark per combinator. Each one parses an input of size chars, so the score divided by size is the cost per
+ * character, and comparing sizes shows how it scales. Run with -prof gc to see the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CombinatorBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    @Param({"list", "spans"})
+    public String mode;
+
+    private String as;
+    private String abs;
+    private String prose;
+    private byte[] proseBytes;
+
+    private Parser literal = Parser.literal('a');
+    private Parser and = Parser.and(Parser.literal('a'), Parser.literal('b'));
+    private Parser or = Parser.or(Parser.literal('x'), Parser.literal('y'), Parser.literal('a'));
+    private Parser merge = Parser.merge(Parser.repeatUntil(Parser.literal('a')));
+    private Parser repeat;
+    private Parser repeatUntil = Parser.repeatUntil(Parser.anyExcept('*'));
+    private Parser chain = Parser.literal('a').chain(result -> Parser.literal('b'));
+    private Parser takeWhile = Parser.takeWhile(CharClass.of("*").negate());
+    private Parser takeWhileFew = Parser.takeWhile(CharClass.of("*`[\n").negate());
+    private Parser scanUntilAny = Parser.scanUntilAny('*', '`', '[', '\n');
+
+    private SpanBuffer spans = new SpanBuffer();
+
+    @Setup
+    public void setup() {
+        char[] chars = new char[size];
+        Arrays.fill(chars, 'a');
+        as = new String(chars);
+        for (int i = 1; i < size; i += 2) {
+            chars[i] = 'b';
+        }
+        abs = new String(chars);
+        prose = Corpus.prose(size);
+        proseBytes = prose.getBytes(StandardCharsets.UTF_8);
+        repeat = Parser.repeat(Parser.any(), size);
+    }
+
+    /**
+     * Run the parser again and again until the input is used up
+     */
+    private void parseAll(Parser parser, String text, Blackhole blackhole) {
+        ParserInput input = new StringInput(text);
+        while (input.hasNext()) {
+            parseOnce(parser, input, blackhole);
+        }
+    }
+
+    private void parseOnce(Parser parser, ParserInput input, Blackhole blackhole) {
+        if (mode.equals("spans")) {
+            blackhole.consume(parser.parseSpans(input, spans));
+        } else {
+            blackhole.consume(parser.parse(input));
+        }
+    }
+
+    @Benchmark
+    public void literal(Blackhole blackhole) {
+        parseAll(literal, as, blackhole);
+    }
+
+    @Benchmark
+    public void and(Blackhole blackhole) {
+        parseAll(and, abs, blackhole);
+    }
+
+    @Benchmark
+    public void or(Blackhole blackhole) {
+        parseAll(or, as, blackhole);
+    }
+
+    @Benchmark
+    public void merge(Blackhole blackhole) {
+        parseOnce(merge, new StringInput(as), blackhole);
+    }
+
+    @Benchmark
+    public void repeat(Blackhole blackhole) {
+        parseOnce(repeat, new StringInput(as), blackhole);
+    }
+
+    @Benchmark
+    public void repeatUntil(Blackhole blackhole) {
+        parseOnce(repeatUntil, new StringInput(prose), blackhole);
+    }
+
+    @Benchmark
+    public void chain(Blackhole blackhole) {
+        parseAll(chain, abs, blackhole);
+    }
+
+    @Benchmark
+    public void takeWhile(Blackhole blackhole) {
+        parseOnce(takeWhile, new StringInput(prose), blackhole);
+    }
+
+    @Benchmark
+    public void takeWhileFew(Blackhole blackhole) {
+        parseOnce(takeWhileFew, new StringInput(prose), blackhole);
+    }
+
+    @Benchmark
+    public void scanUntilAny(Blackhole blackhole) {
+        parseOnce(scanUntilAny, new StringInput(prose), blackhole);
+    }
+
+    @Benchmark
+    public void takeWhileFewUtf8(Blackhole blackhole) {
+        parseOnce(takeWhileFew, new Utf8Input(proseBytes), blackhole);
+    }
+
+    @Benchmark
+    public void scanUntilAnyUtf8(Blackhole blackhole) {
+        parseOnce(scanUntilAny, new Utf8Input(proseBytes), blackhole);
+    }
+}
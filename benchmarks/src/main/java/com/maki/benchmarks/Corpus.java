@@ -0,0 +1,73 @@
+package com.maki.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates blog posts that look like the real thing: mostly prose, with some emphasis, bold, code spans and links
+ * mixed in. Seeded, so every run parses the same text.
+ */
+public final class Corpus {
+    private static final String[] WORDS = {
+            "the", "parser", "combinator", "reads", "a", "post", "and", "turns", "it", "into", "markup", "while",
+            "keeping", "allocation", "low", "because", "every", "render", "counts", "when", "thousands", "of",
+            "posts", "are", "rebuilt", "at", "once", "on", "deploy", "caf\u00e9", "na\u00efve", "\u8900"
+    };
+
+    private Corpus() {
+    }
+
+    /**
+     * Plain text without any markup, at least size chars long and cut to size
+     */
+    public static String prose(int size) {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(size + 16);
+        while (builder.length() < size) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        builder.setLength(size);
+        return builder.toString();
+    }
+
+    /**
+     * A post of roughly size chars, in paragraphs separated by blank lines
+     */
+    public static String post(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder builder = new StringBuilder(size + 64);
+        while (builder.length() < size) {
+            int sentences = 2 + random.nextInt(4);
+            for (int s = 0; s < sentences; s++) {
+                int words = 6 + random.nextInt(12);
+                for (int w = 0; w < words; w++) {
+                    String word = WORDS[random.nextInt(WORDS.length)];
+                    int markup = random.nextInt(20);
+                    if (markup == 0) {
+                        builder.append('*').append(word).append('*');
+                    } else if (markup == 1) {
+                        builder.append("**").append(word).append("**");
+                    } else if (markup == 2) {
+                        builder.append('`').append(word).append("()`");
+                    } else if (markup == 3) {
+                        builder.append('[').append(word).append("](https://example.com/").append(word).append(')');
+                    } else {
+                        builder.append(word);
+                    }
+                    builder.append(w == words - 1 ? ". " : " ");
+                }
+            }
+            builder.append("\n\n");
+        }
+        return builder.toString();
+    }
+
+    public static List<String> posts(int count, int size) {
+        List<String> posts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            posts.add(post(size, i));
+        }
+        return posts;
+    }
+}
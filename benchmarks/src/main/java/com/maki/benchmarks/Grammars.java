@@ -0,0 +1,37 @@
+package com.maki.benchmarks;
+
+import com.maki.CharClass;
+import com.maki.Parser;
+
+import static com.maki.Parser.*;
+
+/**
+ * The inline markup grammar, written the way posts are parsed today: one combinator call per character.
+ */
+public final class Grammars {
+    private Grammars() {
+    }
+
+    public static Parser inline() {
+        Parser text = merge(repeatUntil(noneOf("*`[")));
+        Parser bold = merge(and(literal('*'), literal('*'), repeatUntil(anyExcept('*')), literal('*'), literal('*')));
+        Parser emphasis = merge(and(literal('*'), repeatUntil(anyExcept('*')), literal('*')));
+        Parser code = merge(and(literal('`'), repeatUntil(anyExcept('`')), literal('`')));
+        Parser link = merge(and(literal('['), repeatUntil(anyExcept(']')), literal(']'), literal('('),
+                repeatUntil(anyExcept(')')), literal(')')));
+        return repeatUntil(or(text, bold, emphasis, code, link, any()));
+    }
+
+    /**
+     * The same grammar, written with the bulk primitives
+     */
+    public static Parser inlineBulk() {
+        Parser text = takeWhile(CharClass.of("*`[").negate());
+        Parser bold = merge(and(literal("**"), skipUntil(CharClass.of("*")), literal("**")));
+        Parser emphasis = merge(and(literal('*'), skipUntil(CharClass.of("*")), literal('*')));
+        Parser code = merge(and(literal('`'), skipUntil(CharClass.of("`")), literal('`')));
+        Parser link = merge(and(literal('['), skipUntil(CharClass.of("]")), literal("]("),
+                skipUntil(CharClass.of(")")), literal(')')));
+        return repeatUntil(or(text, bold, emphasis, code, link, any()));
+    }
+}
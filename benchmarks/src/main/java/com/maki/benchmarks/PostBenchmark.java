@@ -0,0 +1,134 @@
+package com.maki.benchmarks;
+
+import com.maki.HtmlRenderer;
+import com.maki.ParseContext;
+import com.maki.Parser;
+import com.maki.SpanBuffer;
+import com.maki.StringInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses a corpus of generated blog posts with the inline markup grammar. Each operation is the whole corpus, so the
+ * score is corpora per second. postSize shows how parsing scales with the length of a post.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PostBenchmark {
+    @Param({"1024", "20480"})
+    public int postSize;
+
+    @Param({"20"})
+    public int posts;
+
+    private List<String> corpus;
+
+    private Parser inline = Grammars.inline();
+    private Parser compiled = inline.compile();
+    private Parser bulk = Grammars.inlineBulk();
+
+    private SpanBuffer spans = new SpanBuffer();
+
+    private ParseContext context = new ParseContext();
+
+    private HtmlRenderer renderer = new HtmlRenderer();
+    private StringBuilder html = new StringBuilder();
+    private ByteBuffer htmlBytes = ByteBuffer.allocate(1 << 20);
+
+    @Setup
+    public void setup() {
+        corpus = Corpus.posts(posts, postSize);
+    }
+
+    @Benchmark
+    public void list(Blackhole blackhole) {
+        for (String post : corpus) {
+            blackhole.consume(inline.parse(post));
+        }
+    }
+
+    @Benchmark
+    public void spans(Blackhole blackhole) {
+        for (String post : corpus) {
+            blackhole.consume(inline.parseSpans(post, spans));
+        }
+    }
+
+    @Benchmark
+    public void contextSpans(Blackhole blackhole) {
+        for (String post : corpus) {
+            blackhole.consume(context.parseSpans(compiled, post).size());
+        }
+    }
+
+    @Benchmark
+    public void compiledList(Blackhole blackhole) {
+        for (String post : corpus) {
+            blackhole.consume(compiled.parse(post));
+        }
+    }
+
+    @Benchmark
+    public void compiledSpans(Blackhole blackhole) {
+        for (String post : corpus) {
+            blackhole.consume(compiled.parseSpans(post, spans));
+        }
+    }
+
+    @Benchmark
+    public void interpreted(Blackhole blackhole) {
+        for (String post : corpus) {
+            blackhole.consume(inline.interpret(new StringInput(post), spans));
+        }
+    }
+
+    @Benchmark
+    public void compiledInterpreted(Blackhole blackhole) {
+        for (String post : corpus) {
+            blackhole.consume(compiled.interpret(new StringInput(post), spans));
+        }
+    }
+
+    @Benchmark
+    public void bulkSpans(Blackhole blackhole) {
+        for (String post : corpus) {
+            blackhole.consume(bulk.parseSpans(post, spans));
+        }
+    }
+
+    @Benchmark
+    public void renderHtml(Blackhole blackhole) {
+        for (String post : corpus) {
+            html.setLength(0);
+            renderer.render(post, html);
+            blackhole.consume(html.length());
+        }
+    }
+
+    @Benchmark
+    public void renderUtf8(Blackhole blackhole) {
+        for (String post : corpus) {
+            htmlBytes.clear();
+            renderer.render(post, htmlBytes);
+            blackhole.consume(htmlBytes.position());
+        }
+    }
+}
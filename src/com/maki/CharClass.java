@@ -0,0 +1,230 @@
+package com.maki;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.BitSet;
+
+/**
+ * An immutable set of chars. ASCII membership is two 64 bit masks, everything else goes to a BitSet. Sets can be
+ * negated without copying, so "anything but these" is as cheap as "one of these".
+ */
+public final class CharClass {
+    private final long low;
+    private final long high;
+    private final BitSet rest;
+    private final boolean negated;
+
+    private CharClass(long low, long high, BitSet rest, boolean negated) {
+        this.low = low;
+        this.high = high;
+        this.rest = rest;
+        this.negated = negated;
+    }
+
+    /**
+     * A class containing exactly the given chars
+     *
+     * @param chars
+     * @return
+     */
+    public static CharClass of(CharSequence chars) {
+        long low = 0;
+        long high = 0;
+        BitSet rest = new BitSet();
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (c < 64) {
+                low |= 1L << c;
+            } else if (c < 128) {
+                high |= 1L << (c - 64);
+            } else {
+                rest.set(c);
+            }
+        }
+        return new CharClass(low, high, rest, false);
+    }
+
+    /**
+     * Every char from first to last, inclusive
+     *
+     * @param first
+     * @param last
+     * @return
+     */
+    public static CharClass range(char first, char last) {
+        if (first > last) {
+            throw new IllegalArgumentException("Empty range " + first + "-" + last);
+        }
+        long low = 0;
+        long high = 0;
+        BitSet rest = new BitSet();
+        for (int c = first; c <= last && c < 128; c++) {
+            if (c < 64) {
+                low |= 1L << c;
+            } else {
+                high |= 1L << (c - 64);
+            }
+        }
+        if (last >= 128) {
+            rest.set(Math.max(first, 128), last + 1);
+        }
+        return new CharClass(low, high, rest, false);
+    }
+
+    /**
+     * @return a class containing every char this one doesn't
+     */
+    public CharClass negate() {
+        return new CharClass(low, high, rest, !negated);
+    }
+
+    /**
+     * @return a class containing every char in either class
+     */
+    public CharClass union(CharClass other) {
+        BitSet rest = effectiveRest();
+        rest.or(other.effectiveRest());
+        return new CharClass(effectiveLow() | other.effectiveLow(), effectiveHigh() | other.effectiveHigh(), rest,
+                false);
+    }
+
+    public boolean contains(char c) {
+        return member(c) != negated;
+    }
+
+    /**
+     * Whether any non-ASCII char is in the class
+     */
+    boolean containsNonAscii() {
+        return negated ? rest.nextClearBit(128) <= Character.MAX_VALUE : !rest.isEmpty();
+    }
+
+    /**
+     * Whether every non-ASCII char is in the class
+     */
+    boolean containsAllNonAscii() {
+        return negated ? rest.isEmpty() : rest.nextClearBit(128) > Character.MAX_VALUE;
+    }
+
+    /**
+     * The chars this class leaves out, if it is "anything but" at most max chars
+     *
+     * @param max
+     * @return the chars, or null if the class isn't negated or leaves out more
+     */
+    char[] excluded(int max) {
+        if (!negated || Long.bitCount(low) + Long.bitCount(high) + rest.cardinality() > max) {
+            return null;
+        }
+        StringBuilder chars = new StringBuilder();
+        for (int c = 0; c < 128; c++) {
+            if (member(c)) {
+                chars.append((char) c);
+            }
+        }
+        for (int c = rest.nextSetBit(128); c >= 0; c = rest.nextSetBit(c + 1)) {
+            chars.append((char) c);
+        }
+        return chars.toString().toCharArray();
+    }
+
+    /**
+     * Save a class, or null, in a few bytes
+     */
+    static void write(CharClass chars, DataOutput out) throws IOException {
+        if (chars == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(chars.negated ? 2 : 1);
+        out.writeLong(chars.low);
+        out.writeLong(chars.high);
+        long[] rest = chars.rest.toLongArray();
+        out.writeShort(rest.length);
+        for (long word : rest) {
+            out.writeLong(word);
+        }
+    }
+
+    static CharClass read(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == 0) {
+            return null;
+        }
+        if (tag > 2) {
+            throw new IOException("Bad char class tag " + tag);
+        }
+        long low = in.readLong();
+        long high = in.readLong();
+        long[] rest = new long[in.readUnsignedShort()];
+        for (int i = 0; i < rest.length; i++) {
+            rest[i] = in.readLong();
+        }
+        return new CharClass(low, high, BitSet.valueOf(rest), tag == 2);
+    }
+
+    /**
+     * Written like a regex character class, e.g. [^*`]
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(negated ? "[^" : "[");
+        int c = 0;
+        while (c <= Character.MAX_VALUE) {
+            if (!member(c)) {
+                c++;
+                continue;
+            }
+            int last = c;
+            while (last < Character.MAX_VALUE && member(last + 1)) {
+                last++;
+            }
+            appendChar(builder, c);
+            if (last > c) {
+                builder.append(last > c + 1 ? "-" : "");
+                appendChar(builder, last);
+            }
+            c = last + 1;
+        }
+        return builder.append("]").toString();
+    }
+
+    private boolean member(int c) {
+        if (c < 64) {
+            return (low & (1L << c)) != 0;
+        } else if (c < 128) {
+            return (high & (1L << (c - 64))) != 0;
+        }
+        return rest.get(c);
+    }
+
+    private static void appendChar(StringBuilder builder, int c) {
+        if (c < 0x20 || c > 0x7E) {
+            builder.append(String.format("\\u%04x", c));
+        } else {
+            if ("\\]^-".indexOf(c) >= 0) {
+                builder.append('\\');
+            }
+            builder.append((char) c);
+        }
+    }
+
+    private long effectiveLow() {
+        return negated ? ~low : low;
+    }
+
+    private long effectiveHigh() {
+        return negated ? ~high : high;
+    }
+
+    private BitSet effectiveRest() {
+        BitSet copy = (BitSet) rest.clone();
+        if (negated) {
+            copy.flip(128, Character.MAX_VALUE + 1);
+        }
+        return copy;
+    }
+}
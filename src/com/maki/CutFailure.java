@@ -0,0 +1,16 @@
+package com.maki;
+
+/**
+ * Thrown when something fails after an and has passed a commit, to tell the nearest enclosing or to give up instead
+ * of trying its other alternatives. It is never seen outside of Parser, and carries no stack trace, so throwing it is
+ * cheap.
+ */
+final class CutFailure extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    static final CutFailure INSTANCE = new CutFailure();
+
+    private CutFailure() {
+        super("Failed after a commit", null, false, false);
+    }
+}
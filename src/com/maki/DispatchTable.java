@@ -0,0 +1,180 @@
+package com.maki;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Picks which alternatives of an or are worth trying, based on the next character. Alternatives whose FIRST set
+ * doesn't contain the character can't succeed, so they are skipped. Alternatives with an unknown FIRST set are always
+ * tried. The ASCII lookups are precomputed. Anything else gets the alternatives that accept some non-ASCII char,
+ * which callers have to filter with isViable unless isExact says the list is already right.
+ */
+final class DispatchTable {
+    private static final int[] NONE = new int[0];
+
+    private final CharClass[] firsts;
+    private final int[][] ascii;
+    private final int[] atEnd;
+    private final int[] nonAscii;
+    private final boolean nonAsciiExact;
+
+    /**
+     * @param firsts the FIRST set of each alternative, in order. null means unknown
+     */
+    DispatchTable(CharClass[] firsts) {
+        this.firsts = firsts;
+        this.ascii = new int[128][];
+        for (char c = 0; c < 128; c++) {
+            ascii[c] = viable(c);
+        }
+        List<Integer> unknown = new ArrayList<>();
+        List<Integer> others = new ArrayList<>();
+        boolean exact = true;
+        for (int i = 0; i < firsts.length; i++) {
+            CharClass first = firsts[i];
+            if (first == null) {
+                unknown.add(i);
+                others.add(i);
+            } else if (first.containsNonAscii()) {
+                others.add(i);
+                exact &= first.containsAllNonAscii();
+            }
+        }
+        atEnd = toArray(unknown);
+        nonAscii = toArray(others);
+        nonAsciiExact = exact;
+    }
+
+    private DispatchTable(CharClass[] firsts, int[][] ascii, int[] atEnd, int[] nonAscii, boolean nonAsciiExact) {
+        this.firsts = firsts;
+        this.ascii = ascii;
+        this.atEnd = atEnd;
+        this.nonAscii = nonAscii;
+        this.nonAsciiExact = nonAsciiExact;
+    }
+
+    /**
+     * @return how many alternatives the table is for
+     */
+    int size() {
+        return firsts.length;
+    }
+
+    /**
+     * Save the table as it is, so reading it back doesn't have to work it out again. Most ASCII chars have the same
+     * candidates, so each different list is written once and the chars refer to it
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeShort(firsts.length);
+        for (CharClass first : firsts) {
+            CharClass.write(first, out);
+        }
+        List<int[]> distinct = new ArrayList<>();
+        byte[] refs = new byte[128];
+        for (int c = 0; c < 128; c++) {
+            int ref = 0;
+            while (ref < distinct.size() && !Arrays.equals(distinct.get(ref), ascii[c])) {
+                ref++;
+            }
+            if (ref == distinct.size()) {
+                distinct.add(ascii[c]);
+            }
+            refs[c] = (byte) ref;
+        }
+        out.writeByte(distinct.size());
+        for (int[] candidates : distinct) {
+            writeIndexes(candidates, out);
+        }
+        out.write(refs);
+        writeIndexes(atEnd, out);
+        writeIndexes(nonAscii, out);
+        out.writeBoolean(nonAsciiExact);
+    }
+
+    static DispatchTable read(DataInput in) throws IOException {
+        CharClass[] firsts = new CharClass[in.readUnsignedShort()];
+        for (int i = 0; i < firsts.length; i++) {
+            firsts[i] = CharClass.read(in);
+        }
+        int[][] distinct = new int[in.readUnsignedByte()][];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = readIndexes(in);
+        }
+        int[][] ascii = new int[128][];
+        for (int c = 0; c < 128; c++) {
+            ascii[c] = distinct[in.readUnsignedByte()];
+        }
+        //nonAscii is read on its own, isExact tells it apart from the ASCII lists by identity
+        return new DispatchTable(firsts, ascii, readIndexes(in), readIndexes(in), in.readBoolean());
+    }
+
+    private static void writeIndexes(int[] indexes, DataOutput out) throws IOException {
+        out.writeShort(indexes.length);
+        for (int index : indexes) {
+            out.writeShort(index);
+        }
+    }
+
+    private static int[] readIndexes(DataInput in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length == 0) {
+            return NONE;
+        }
+        int[] indexes = new int[length];
+        for (int i = 0; i < length; i++) {
+            indexes[i] = in.readUnsignedShort();
+        }
+        return indexes;
+    }
+
+    /**
+     * The indexes of the alternatives that could match at the input's current position, in order
+     */
+    int[] candidates(ParserInput input) {
+        if (!input.hasNext()) {
+            return atEnd;
+        }
+        char c = input.read();
+        return c < 128 ? ascii[c] : nonAscii;
+    }
+
+    /**
+     * Whether every alternative candidates returned is viable, or some still need checking with isViable
+     */
+    boolean isExact(int[] candidates) {
+        return candidates != nonAscii || nonAsciiExact;
+    }
+
+    /**
+     * Whether the alternative could match at the input's current position
+     */
+    boolean isViable(int alternative, ParserInput input) {
+        CharClass first = firsts[alternative];
+        return first == null || (input.hasNext() && first.contains(input.read()));
+    }
+
+    private int[] viable(char c) {
+        List<Integer> viable = new ArrayList<>();
+        for (int i = 0; i < firsts.length; i++) {
+            if (firsts[i] == null || firsts[i].contains(c)) {
+                viable.add(i);
+            }
+        }
+        return toArray(viable);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        if (list.isEmpty()) {
+            return NONE;
+        }
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
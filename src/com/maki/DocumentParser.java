@@ -0,0 +1,155 @@
+package com.maki;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses a document one block at a time, spreading the blocks over a ForkJoinPool. Blocks are separated by blank
+ * lines, except inside fenced code blocks (``` or ~~~), which always stay in one piece. Every block is parsed with
+ * the same parser, which is safe because parsers are immutable, and the results come back in document order.
+ */
+public class DocumentParser {
+    //Ranges of blocks smaller than this many chars are parsed on the current thread, forking would cost more
+    private static final int SEQUENTIAL_THRESHOLD = 8192;
+
+    private final Parser parser;
+
+    private final ForkJoinPool pool;
+
+    public DocumentParser(Parser parser) {
+        this(parser, ForkJoinPool.commonPool());
+    }
+
+    public DocumentParser(Parser parser, ForkJoinPool pool) {
+        this.parser = parser;
+        this.pool = pool;
+    }
+
+    /**
+     * Parse every block in the document
+     *
+     * @param document
+     * @return one result per block, in the order the blocks appear
+     */
+    public List<ParserResult> parse(String document) {
+        int[] blocks = splitBlocks(document);
+        ParserResult[] results = new ParserResult[blocks.length / 2];
+        pool.invoke(new BlockTask(document, blocks, results, 0, results.length));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Find the blocks in the document without parsing it
+     *
+     * @param document
+     * @return the start and end of each block, one after the other. Ends are exclusive and leave off the newline
+     */
+    public static int[] splitBlocks(String document) {
+        List<Integer> bounds = new ArrayList<>();
+        int blockStart = -1;
+        int blockEnd = -1;
+        char fence = 0;
+
+        int lineStart = 0;
+        while (lineStart < document.length()) {
+            int newline = document.indexOf('\n', lineStart);
+            int lineEnd = newline < 0 ? document.length() : newline;
+
+            if (fence != 0) {
+                blockEnd = lineEnd;
+                if (fenceChar(document, lineStart, lineEnd) == fence) {
+                    fence = 0;
+                }
+            } else if (isBlank(document, lineStart, lineEnd)) {
+                if (blockStart >= 0) {
+                    bounds.add(blockStart);
+                    bounds.add(blockEnd);
+                    blockStart = -1;
+                }
+            } else {
+                if (blockStart < 0) {
+                    blockStart = lineStart;
+                }
+                blockEnd = lineEnd;
+                fence = fenceChar(document, lineStart, lineEnd);
+            }
+            lineStart = lineEnd + 1;
+        }
+        if (blockStart >= 0) {
+            bounds.add(blockStart);
+            bounds.add(blockEnd);
+        }
+
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private static boolean isBlank(String document, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = document.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The fence character if the line opens or closes a fence, otherwise 0
+     */
+    private static char fenceChar(String document, int start, int end) {
+        int i = start;
+        while (i < end && i - start < 3 && document.charAt(i) == ' ') {
+            i++;
+        }
+        if (end - i < 3) {
+            return 0;
+        }
+        char c = document.charAt(i);
+        if ((c == '`' || c == '~') && document.charAt(i + 1) == c && document.charAt(i + 2) == c) {
+            return c;
+        }
+        return 0;
+    }
+
+    /**
+     * Parses blocks [from, to), splitting the range in half until it's small enough to do directly
+     */
+    private class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String document;
+        private final int[] blocks;
+        private final ParserResult[] results;
+        private final int from;
+        private final int to;
+
+        BlockTask(String document, int[] blocks, ParserResult[] results, int from, int to) {
+            this.document = document;
+            this.blocks = blocks;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int chars = to > from ? blocks[to * 2 - 1] - blocks[from * 2] : 0;
+            if (to - from <= 1 || chars <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = parser.parse(document.substring(blocks[i * 2], blocks[i * 2 + 1]));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new BlockTask(document, blocks, results, from, middle),
+                    new BlockTask(document, blocks, results, middle, to));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.maki;
+
+import java.util.Optional;
+
+/**
+ * Wraps an input and remembers the furthest position a parser looked at, whether it consumed it or just checked it.
+ * What a parser returns can only depend on the text up to there, which is what lets the incremental parser know which
+ * results an edit can't have changed
+ */
+class ExtentInput implements ParserInput {
+    private final ParserInput input;
+
+    //One past the furthest position looked at
+    private int extent;
+
+    ExtentInput(ParserInput input) {
+        this.input = input;
+        this.extent = input.getIndex();
+    }
+
+    /**
+     * Forget everything looked at so far, starting over from the current index
+     */
+    void resetExtent() {
+        extent = input.getIndex();
+    }
+
+    int getExtent() {
+        return extent;
+    }
+
+    private void saw(int position) {
+        if (position + 1 > extent) {
+            extent = position + 1;
+        }
+    }
+
+    @Override
+    public char read() {
+        saw(input.getIndex());
+        return input.read();
+    }
+
+    @Override
+    public void advance() {
+        input.advance();
+    }
+
+    @Override
+    public void setIndex(int index) {
+        input.setIndex(index);
+    }
+
+    @Override
+    public int getIndex() {
+        return input.getIndex();
+    }
+
+    @Override
+    public int mark() {
+        return input.mark();
+    }
+
+    @Override
+    public void release(int mark) {
+        input.release(mark);
+    }
+
+    @Override
+    public boolean hasNext() {
+        //Even finding the end counts, the result would change if text were added there
+        saw(input.getIndex());
+        return input.hasNext();
+    }
+
+    @Override
+    public Optional<?> rest() {
+        extent = Integer.MAX_VALUE;
+        return input.rest();
+    }
+
+    @Override
+    public CharSequence slice(int start, int end) {
+        if (end > 0) {
+            saw(end - 1);
+        }
+        return input.slice(start, end);
+    }
+
+    @Override
+    public int advanceWhile(CharClass chars) {
+        int count = input.advanceWhile(chars);
+        //It had to look at the char it stopped on
+        saw(input.getIndex());
+        return count;
+    }
+
+    @Override
+    public int advanceUntilAny(char[] delimiters) {
+        int count = input.advanceUntilAny(delimiters);
+        saw(input.getIndex());
+        return count;
+    }
+
+    @Override
+    public boolean match(String text) {
+        saw(input.getIndex() + text.length() - 1);
+        return input.match(text);
+    }
+
+    @Override
+    public ParseState getState() {
+        return input.getState();
+    }
+}
@@ -0,0 +1,307 @@
+package com.maki;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Saves a grammar to bytes and loads it back, so a process can start from a grammar that was built and compiled
+ * ahead of time. The snapshot is the node graph as it is: fused literals and scans stay fused, shared nodes (memos
+ * especially) stay shared, and every or keeps its FIRST sets and dispatch table, so loading builds no tables.
+ *
+ * Parsers made with chain hold a function, which can't be saved, so they are refused. Tracing isn't saved either,
+ * trace the loaded parser again if you want it.
+ */
+public final class GrammarSnapshot {
+    private static final int MAGIC = 0x4D414B49;
+    private static final int VERSION = 1;
+
+    private GrammarSnapshot() {
+    }
+
+    /**
+     * @param parser
+     * @return the snapshot
+     * @throws IllegalArgumentException if the grammar uses chain
+     */
+    public static byte[] toBytes(Parser parser) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(parser, bytes);
+        } catch (IOException e) {
+            //ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Parser fromBytes(byte[] snapshot) throws IOException {
+        return read(new ByteArrayInputStream(snapshot));
+    }
+
+    /**
+     * Write the grammar. The stream isn't closed
+     *
+     * @param parser
+     * @param out
+     * @throws IOException
+     * @throws IllegalArgumentException if the grammar uses chain
+     */
+    public static void write(Parser parser, OutputStream out) throws IOException {
+        List<Parser> nodes = postOrder(parser);
+        Map<Parser, Integer> indexes = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            indexes.put(nodes.get(i), i);
+        }
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        //Kinds by name, so a snapshot still loads after kinds are added or reordered
+        Parser.Kind[] kinds = Parser.Kind.values();
+        data.writeByte(kinds.length);
+        for (Parser.Kind kind : kinds) {
+            data.writeUTF(kind.name());
+        }
+
+        data.writeInt(nodes.size());
+        for (Parser node : nodes) {
+            data.writeByte(node.getKind().ordinal());
+            Parser[] children = node.children();
+            data.writeInt(children.length);
+            for (Parser child : children) {
+                data.writeInt(indexes.get(child));
+            }
+            writeArgument(node, data);
+        }
+        data.flush();
+    }
+
+    /**
+     * Load a grammar written by {@link #write(Parser, OutputStream)}. The stream isn't closed
+     *
+     * @param in
+     * @return the root parser
+     * @throws IOException if the stream fails, or isn't a snapshot
+     */
+    public static Parser read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a grammar snapshot");
+        }
+        int version = data.readUnsignedShort();
+        if (version != VERSION) {
+            throw new IOException("Grammar snapshot version " + version + ", only " + VERSION + " is supported");
+        }
+        Parser.Kind[] kinds = new Parser.Kind[data.readUnsignedByte()];
+        for (int i = 0; i < kinds.length; i++) {
+            String name = data.readUTF();
+            try {
+                kinds[i] = Parser.Kind.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Grammar snapshot uses unknown kind " + name, e);
+            }
+        }
+
+        Parser[] nodes = new Parser[data.readInt()];
+        if (nodes.length == 0) {
+            throw new IOException("Empty grammar snapshot");
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            int kind = data.readUnsignedByte();
+            if (kind >= kinds.length) {
+                throw new IOException("Bad kind " + kind + " at node " + i);
+            }
+            Parser[] children = new Parser[data.readInt()];
+            for (int j = 0; j < children.length; j++) {
+                int child = data.readInt();
+                //Children always come first
+                if (child < 0 || child >= i) {
+                    throw new IOException("Bad child " + child + " at node " + i);
+                }
+                children[j] = nodes[child];
+            }
+            nodes[i] = readNode(kinds[kind], children, data);
+        }
+        return nodes[nodes.length - 1];
+    }
+
+    /**
+     * Every node once, children before parents and the root last. Uses its own stack, grammars can be deeper than
+     * the call stack
+     */
+    private static List<Parser> postOrder(Parser root) {
+        List<Parser> nodes = new ArrayList<>();
+        Map<Parser, Boolean> seen = new IdentityHashMap<>();
+        Deque<Parser> stack = new ArrayDeque<>();
+        Deque<Boolean> expanded = new ArrayDeque<>();
+        stack.push(root);
+        expanded.push(false);
+        while (!stack.isEmpty()) {
+            Parser node = stack.pop();
+            boolean childrenDone = expanded.pop();
+            if (childrenDone) {
+                nodes.add(node);
+                continue;
+            }
+            if (seen.put(node, true) != null) {
+                continue;
+            }
+            if (node.getKind() == Parser.Kind.CHAIN) {
+                throw new IllegalArgumentException("Grammars with chain can't be saved, chain functions are code");
+            }
+            stack.push(node);
+            expanded.push(true);
+            Parser[] children = node.children();
+            for (int i = children.length - 1; i >= 0; i--) {
+                if (!seen.containsKey(children[i])) {
+                    stack.push(children[i]);
+                    expanded.push(false);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private static void writeArgument(Parser node, DataOutputStream data) throws IOException {
+        Object argument = node.getArgument();
+        switch (node.getKind()) {
+            case LITERAL:
+            case ANY_EXCEPT:
+                data.writeChar((Character) argument);
+                return;
+            case STRING:
+                data.writeUTF((String) argument);
+                return;
+            case CHAR_IN:
+            case TAKE_WHILE:
+            case SKIP_UNTIL:
+                CharClass.write((CharClass) argument, data);
+                return;
+            case SCAN_UNTIL: {
+                char[] delimiters = (char[]) argument;
+                data.writeShort(delimiters.length);
+                for (char delimiter : delimiters) {
+                    data.writeChar(delimiter);
+                }
+                return;
+            }
+            case REGEX: {
+                Pattern pattern = (Pattern) argument;
+                data.writeUTF(pattern.pattern());
+                data.writeInt(pattern.flags());
+                return;
+            }
+            case OR:
+                CharClass.write(node.firstSet().orElse(null), data);
+                ((DispatchTable) argument).write(data);
+                return;
+            case REPEAT:
+                data.writeInt((Integer) argument);
+                return;
+            default:
+                //Nothing but children. Memo ids are handed out again on load
+                return;
+        }
+    }
+
+    private static Parser readNode(Parser.Kind kind, Parser[] children, DataInputStream data) throws IOException {
+        int min = 0;
+        int max = 0;
+        switch (kind) {
+            case AND:
+                min = 1;
+                max = Integer.MAX_VALUE;
+                break;
+            case OR:
+                min = 2;
+                max = Integer.MAX_VALUE;
+                break;
+            case MERGE:
+            case REPEAT:
+            case REPEAT_UNTIL:
+            case MEMO:
+                min = 1;
+                max = 1;
+                break;
+            default:
+                break;
+        }
+        if (children.length < min || children.length > max) {
+            throw new IOException(kind + " with " + children.length + " children");
+        }
+
+        switch (kind) {
+            case LITERAL:
+                return Parser.literal(data.readChar());
+            case STRING:
+                return Parser.literal(data.readUTF());
+            case ANY:
+                return Parser.any();
+            case ANY_EXCEPT:
+                return Parser.anyExcept(data.readChar());
+            case CHAR_IN:
+                return Parser.charIn(readClass(data));
+            case TAKE_WHILE:
+                return Parser.takeWhile(readClass(data));
+            case SKIP_UNTIL:
+                return Parser.skipUntil(readClass(data));
+            case SCAN_UNTIL: {
+                char[] delimiters = new char[data.readUnsignedShort()];
+                for (int i = 0; i < delimiters.length; i++) {
+                    delimiters[i] = data.readChar();
+                }
+                return Parser.scanUntilAny(delimiters);
+            }
+            case REGEX:
+                return Parser.regex(Pattern.compile(data.readUTF(), data.readInt()));
+            case OR: {
+                CharClass first = CharClass.read(data);
+                DispatchTable dispatch = DispatchTable.read(data);
+                if (dispatch.size() != children.length) {
+                    throw new IOException("Dispatch table for " + dispatch.size() + " alternatives on an or with "
+                            + children.length);
+                }
+                return Parser.or(children, dispatch, first);
+            }
+            case AND:
+                return Parser.and(children[0], Arrays.copyOfRange(children, 1, children.length));
+            case MERGE:
+                return Parser.merge(children[0]);
+            case REPEAT:
+                return Parser.repeat(children[0], data.readInt());
+            case REPEAT_UNTIL:
+                return Parser.repeatUntil(children[0]);
+            case MEMO:
+                return Parser.memo(children[0]);
+            case FAIL:
+                return Parser.fail();
+            case COMMIT:
+                return Parser.commit();
+            case CHAIN:
+                throw new IOException("Grammar snapshots can't hold chain");
+            default:
+                throw new IOException("Can't load " + kind);
+        }
+    }
+
+    private static CharClass readClass(DataInputStream data) throws IOException {
+        CharClass chars = CharClass.read(data);
+        if (chars == null) {
+            throw new IOException("Missing char class");
+        }
+        return chars;
+    }
+}
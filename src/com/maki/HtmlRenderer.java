@@ -0,0 +1,332 @@
+package com.maki;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+import static com.maki.Parser.*;
+
+/**
+ * Renders a post to HTML as it parses it. Blocks are found with {@link DocumentParser#splitBlocks(String)}, and each
+ * line is classified with the block grammar: headings, fenced code, bullet and numbered lists, and paragraphs. The
+ * text of headings, list items and paragraphs goes through the inline grammar: **bold**, *emphasis*, `code` and
+ * [links](url). Every match is written straight to the output, there is no tree and no intermediate string.
+ *
+ * A renderer keeps its input, span buffer and encoder between posts, so it isn't thread safe. Use one per thread.
+ */
+public class HtmlRenderer {
+    private static final CharClass NEWLINE = CharClass.of("\n");
+    private static final CharClass SPACES = CharClass.of(" ");
+
+    //The inline grammar. Each construct is its own parser so the renderer knows which one matched, and the and
+    //gives a span per part, so the content is spans.start(1) to spans.end(1)
+    private static final Parser TEXT = takeWhile(CharClass.of("*`[&<>\"").negate());
+    private static final Parser BOLD = and(literal("**"), takeWhile(CharClass.of("*").negate()), literal("**"));
+    private static final Parser EMPHASIS = and(literal('*'), takeWhile(CharClass.of("*").negate()), literal('*'));
+    private static final Parser CODE = and(literal('`'), takeWhile(CharClass.of("`").negate()), literal('`'));
+    private static final Parser LINK = and(literal('['), takeWhile(CharClass.of("]\n").negate()), literal("]("),
+            takeWhile(CharClass.of(") \n").negate()), literal(')'));
+
+    //The block grammar, run on one line at a time
+    private static final Parser HEADING = and(takeWhile(CharClass.of("#")), takeWhile(SPACES), skipUntil(NEWLINE));
+    private static final Parser FENCE = and(or(literal("```"), literal("~~~")), skipUntil(NEWLINE));
+    private static final Parser BULLET = and(charIn("-*+"), takeWhile(SPACES), skipUntil(NEWLINE));
+    private static final Parser NUMBERED = and(takeWhile(CharClass.range('0', '9')), literal('.'), takeWhile(SPACES),
+            skipUntil(NEWLINE));
+
+    private final StringInput input = new StringInput("");
+    private final SpanBuffer spans = new SpanBuffer();
+
+    //For ByteBuffer output, each block is rendered here and then encoded
+    private final StringBuilder chunk = new StringBuilder();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    private String source;
+
+    /**
+     * Render the post, writing the HTML to out as it goes
+     *
+     * @param source
+     * @param out
+     * @throws IOException if out does
+     */
+    public void render(String source, Appendable out) throws IOException {
+        this.source = source;
+        try {
+            int[] blocks = DocumentParser.splitBlocks(source);
+            for (int i = 0; i < blocks.length; i += 2) {
+                renderBlock(blocks[i], blocks[i + 1], out);
+            }
+        } finally {
+            this.source = null;
+        }
+    }
+
+    /**
+     * Render the post onto the end of the builder
+     *
+     * @param source
+     * @param out
+     */
+    public void render(String source, StringBuilder out) {
+        try {
+            render(source, (Appendable) out);
+        } catch (IOException e) {
+            //StringBuilder doesn't throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Render the post as UTF-8, from the buffer's position on. One block at a time is held as chars before it is
+     * encoded
+     *
+     * @param source
+     * @param out
+     * @throws BufferOverflowException if the HTML doesn't fit. out is left partly written
+     */
+    public void render(String source, ByteBuffer out) {
+        this.source = source;
+        try {
+            int[] blocks = DocumentParser.splitBlocks(source);
+            for (int i = 0; i < blocks.length; i += 2) {
+                chunk.setLength(0);
+                renderBlock(blocks[i], blocks[i + 1], chunk);
+                encoder.reset();
+                CoderResult result = encoder.encode(CharBuffer.wrap(chunk), out, true);
+                if (result.isOverflow()) {
+                    throw new BufferOverflowException();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            this.source = null;
+            chunk.setLength(0);
+        }
+    }
+
+    private void renderBlock(int start, int end, Appendable out) throws IOException {
+        int position = start;
+        while (position < end) {
+            int lineEnd = lineEnd(position, end);
+            if (matches(FENCE, position, lineEnd)) {
+                position = renderFence(position, end, out);
+            } else if (isHeading(position, lineEnd)) {
+                int level = spans.end(0) - spans.start(0);
+                int textStart = spans.start(2);
+                out.append("<h").append((char) ('0' + level)).append('>');
+                renderInline(textStart, lineEnd, out);
+                out.append("</h").append((char) ('0' + level)).append(">\n");
+                position = lineEnd + 1;
+            } else if (isItem(position, lineEnd)) {
+                position = renderList(position, end, out);
+            } else {
+                position = renderParagraph(position, end, out);
+            }
+        }
+    }
+
+    /**
+     * A paragraph runs until the end of the block, or a line that starts something else
+     */
+    private int renderParagraph(int start, int end, Appendable out) throws IOException {
+        int lineEnd = lineEnd(start, end);
+        int next = lineEnd + 1;
+        while (next < end) {
+            int nextEnd = lineEnd(next, end);
+            if (startsBlock(next, nextEnd)) {
+                break;
+            }
+            lineEnd = nextEnd;
+            next = nextEnd + 1;
+        }
+        out.append("<p>");
+        renderInline(start, lineEnd, out);
+        out.append("</p>\n");
+        return next;
+    }
+
+    private int renderList(int start, int end, Appendable out) throws IOException {
+        boolean numbered = matches(NUMBERED, start, lineEnd(start, end));
+        Parser item = numbered ? NUMBERED : BULLET;
+        out.append(numbered ? "<ol>\n" : "<ul>\n");
+
+        int position = start;
+        boolean first = true;
+        while (position < end) {
+            int lineEnd = lineEnd(position, end);
+            if (matches(item, position, lineEnd)) {
+                out.append(first ? "<li>" : "</li>\n<li>");
+                first = false;
+                renderInline(spans.start(spans.size() - 1), lineEnd, out);
+            } else if (startsBlock(position, lineEnd)) {
+                break;
+            } else {
+                //A continuation of the item before
+                out.append('\n');
+                renderInline(position, lineEnd, out);
+            }
+            position = lineEnd + 1;
+        }
+        out.append(numbered ? "</li>\n</ol>\n" : "</li>\n</ul>\n");
+        return position;
+    }
+
+    /**
+     * Fenced code runs to the closing fence, or the end of the block if there isn't one
+     */
+    private int renderFence(int start, int end, Appendable out) throws IOException {
+        int lineEnd = lineEnd(start, end);
+        char fence = source.charAt(start);
+        int infoStart = spans.start(1);
+        int infoEnd = infoStart;
+        for (int i = infoStart; i < lineEnd; i++) {
+            if (source.charAt(i) != ' ') {
+                infoEnd = i + 1;
+            } else if (infoEnd == infoStart) {
+                infoStart = i + 1;
+                infoEnd = infoStart;
+            }
+        }
+
+        out.append("<pre><code");
+        if (infoEnd > infoStart) {
+            out.append(" class=\"language-");
+            appendEscaped(infoStart, infoEnd, out);
+            out.append('"');
+        }
+        out.append('>');
+
+        int position = lineEnd + 1;
+        int contentStart = Math.min(position, end);
+        while (position < end) {
+            int codeEnd = lineEnd(position, end);
+            if (matches(FENCE, position, codeEnd) && source.charAt(position) == fence) {
+                appendEscaped(contentStart, position, out);
+                out.append("</code></pre>\n");
+                return codeEnd + 1;
+            }
+            position = codeEnd + 1;
+        }
+        appendEscaped(contentStart, end, out);
+        if (contentStart < end) {
+            out.append('\n');
+        }
+        out.append("</code></pre>\n");
+        return end;
+    }
+
+    private void renderInline(int start, int end, Appendable out) throws IOException {
+        int position = start;
+        while (position < end) {
+            char c = source.charAt(position);
+            if (c == '*' && matches(BOLD, position, end) && flanked()) {
+                position = renderSpan("<strong>", "</strong>", out, true);
+            } else if (c == '*' && matches(EMPHASIS, position, end) && flanked()) {
+                position = renderSpan("<em>", "</em>", out, true);
+            } else if (c == '`' && matches(CODE, position, end)) {
+                position = renderSpan("<code>", "</code>", out, false);
+            } else if (c == '[' && matches(LINK, position, end)) {
+                int textStart = spans.start(1);
+                int textEnd = spans.end(1);
+                int next = input.getIndex();
+                out.append("<a href=\"");
+                appendEscaped(spans.start(3), spans.end(3), out);
+                out.append("\">");
+                renderInline(textStart, textEnd, out);
+                out.append("</a>");
+                position = next;
+            } else if (matches(TEXT, position, end)) {
+                out.append(source, position, input.getIndex());
+                position = input.getIndex();
+            } else {
+                appendEscaped(position, position + 1, out);
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Write the content of the construct that just matched between the tags
+     *
+     * @return where the construct ended
+     */
+    private int renderSpan(String open, String close, Appendable out, boolean inline) throws IOException {
+        int contentStart = spans.start(1);
+        int contentEnd = spans.end(1);
+        int next = input.getIndex();
+        out.append(open);
+        if (inline) {
+            renderInline(contentStart, contentEnd, out);
+        } else {
+            appendEscaped(contentStart, contentEnd, out);
+        }
+        out.append(close);
+        return next;
+    }
+
+    private void appendEscaped(int start, int end, Appendable out) throws IOException {
+        int run = start;
+        for (int i = start; i < end; i++) {
+            String escaped;
+            switch (source.charAt(i)) {
+                case '&':
+                    escaped = "&amp;";
+                    break;
+                case '<':
+                    escaped = "&lt;";
+                    break;
+                case '>':
+                    escaped = "&gt;";
+                    break;
+                case '"':
+                    escaped = "&quot;";
+                    break;
+                default:
+                    continue;
+            }
+            out.append(source, run, i).append(escaped);
+            run = i + 1;
+        }
+        out.append(source, run, end);
+    }
+
+    /**
+     * Run a parser in span mode over [start, end), leaving its spans in the buffer and the input where it stopped
+     */
+    private boolean matches(Parser parser, int start, int end) {
+        input.reset(source, start, end);
+        spans.clear();
+        return parser.applySpans(input, spans);
+    }
+
+    /**
+     * Stars around spaces, as in 2 * 3 * 4, are just stars
+     */
+    private boolean flanked() {
+        return source.charAt(spans.start(1)) != ' ' && source.charAt(spans.end(1) - 1) != ' ';
+    }
+
+    private boolean isHeading(int start, int lineEnd) {
+        return matches(HEADING, start, lineEnd) && spans.end(0) - spans.start(0) <= 6;
+    }
+
+    private boolean isItem(int start, int lineEnd) {
+        return matches(BULLET, start, lineEnd) || matches(NUMBERED, start, lineEnd);
+    }
+
+    private boolean startsBlock(int start, int lineEnd) {
+        return matches(FENCE, start, lineEnd) || isHeading(start, lineEnd) || isItem(start, lineEnd);
+    }
+
+    private int lineEnd(int start, int end) {
+        int newline = source.indexOf('\n', start);
+        return newline < 0 || newline > end ? end : newline;
+    }
+}
@@ -0,0 +1,159 @@
+package com.maki;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Parses a document as a run of items, like repeatUntil(item), and reparses edits without starting over. Every item
+ * records how far the parser looked while parsing it. After an edit, items that never looked at the edited text are
+ * kept, and parsing starts again at the first one that did. As soon as a new item ends where an old item after the
+ * edit started, everything from there on is kept too, just moved by the length of the edit. So the work done depends
+ * on how much the edit disturbs, not on the length of the document.
+ *
+ * Items have to parse the same way wherever they start, which is true unless a chain function does something
+ * strange. An item that succeeds without consuming anything ends the document, rather than looping forever
+ */
+public class IncrementalParser {
+    private final Parser item;
+
+    public IncrementalParser(Parser item) {
+        this.item = item;
+    }
+
+    /**
+     * Parse the whole text
+     *
+     * @param text
+     * @return
+     */
+    public IncrementalResult parse(String text) {
+        return parseFrom(text, new Items(), 0, null, 0, 0, 0);
+    }
+
+    /**
+     * Apply an edit to the text of a previous result, and parse only what it could have changed
+     *
+     * @param previous
+     * @param offset   where the edit starts, in the previous text
+     * @param removed  how many chars the edit removed from there
+     * @param inserted what the edit put in their place
+     * @return the result for the edited text, the same as parsing it from scratch
+     */
+    public IncrementalResult reparse(IncrementalResult previous, int offset, int removed, String inserted) {
+        String old = previous.getText();
+        if (offset < 0 || removed < 0 || offset + removed > old.length()) {
+            throw new IndexOutOfBoundsException("Can't remove [" + offset + ", " + (offset + removed)
+                    + ") from text of length " + old.length());
+        }
+        String text = old.substring(0, offset) + inserted + old.substring(offset + removed);
+        int delta = inserted.length() - removed;
+
+        //Items that never looked as far as the edit can't have changed
+        Items items = new Items();
+        int kept = 0;
+        while (kept < previous.size() && previous.extent(kept) <= offset) {
+            items.add(previous.start(kept), previous.end(kept), previous.extent(kept), previous.getItem(kept));
+            kept++;
+        }
+        if (kept == previous.size() && previous.stopExtent() <= offset) {
+            items.stop(previous.stopStart(), previous.stopExtent());
+            return items.toResult(text, 0);
+        }
+        int position = kept == 0 ? 0 : previous.end(kept - 1);
+        return parseFrom(text, items, position, previous, kept, delta, offset + removed);
+    }
+
+    /**
+     * Parse items from position until the text runs out, or until an item ends where one of the previous items after
+     * the edit started
+     *
+     * @param next    the first previous item that could still be reused
+     * @param delta   how much the edit moved the text after it
+     * @param editEnd where the edit ended in the previous text
+     */
+    private IncrementalResult parseFrom(String text, Items items, int position, IncrementalResult previous, int next,
+                                        int delta, int editEnd) {
+        ExtentInput input = new ExtentInput(new StringInput(text));
+        int reparsed = 0;
+        while (true) {
+            int oldPosition = position - delta;
+            if (previous != null && oldPosition >= editEnd) {
+                while (next < previous.size() && previous.start(next) < oldPosition) {
+                    next++;
+                }
+                if (next < previous.size() && previous.start(next) == oldPosition) {
+                    //Everything from here on only ever looked at text after the edit, which hasn't changed
+                    for (int i = next; i < previous.size(); i++) {
+                        items.add(previous.start(i) + delta, previous.end(i) + delta, shift(previous.extent(i), delta),
+                                previous.getItem(i));
+                    }
+                    items.stop(previous.stopStart() + delta, shift(previous.stopExtent(), delta));
+                    return items.toResult(text, reparsed);
+                }
+                if (next == previous.size() && previous.stopStart() == oldPosition) {
+                    items.stop(position, shift(previous.stopExtent(), delta));
+                    return items.toResult(text, reparsed);
+                }
+            }
+
+            input.setIndex(position);
+            input.resetExtent();
+            Optional<List<String>> result = item.parse(input).getParsed();
+            int end = input.getIndex();
+            reparsed++;
+            if (!result.isPresent() || end == position) {
+                items.stop(position, input.getExtent());
+                return items.toResult(text, reparsed);
+            }
+            items.add(position, end, input.getExtent(), result.get());
+            position = end;
+        }
+    }
+
+    private static int shift(int extent, int delta) {
+        //An item that read the rest of the input still reads to the end of it
+        return extent == Integer.MAX_VALUE ? extent : extent + delta;
+    }
+
+    /**
+     * Collects the items of a result
+     */
+    private static class Items {
+        private int size = 0;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int[] extents = new int[16];
+        private List<List<String>> results = new ArrayList<>();
+
+        void add(int start, int end, int extent, List<String> result) {
+            append(start, end, extent);
+            results.add(result);
+        }
+
+        /**
+         * Record the attempt that failed and ended the document
+         */
+        void stop(int start, int extent) {
+            append(start, start, extent);
+            size--;
+        }
+
+        private void append(int start, int end, int extent) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                extents = Arrays.copyOf(extents, size * 2);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            extents[size] = extent;
+            size++;
+        }
+
+        IncrementalResult toResult(String text, int reparsed) {
+            return new IncrementalResult(text, size, starts, ends, extents, results, reparsed);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.maki;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The result of an {@link IncrementalParser}: the text, and every item parsed from it with where it starts, where it
+ * ends and how far past that the parser looked. Hand it back to the parser with an edit to get the result for the
+ * edited text.
+ */
+public class IncrementalResult {
+    private final String text;
+
+    private final int size;
+
+    //size + 1 entries, the last is the attempt that failed and ended the document
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] extents;
+
+    private final List<List<String>> items;
+
+    private final int reparsed;
+
+    IncrementalResult(String text, int size, int[] starts, int[] ends, int[] extents, List<List<String>> items,
+                      int reparsed) {
+        this.text = text;
+        this.size = size;
+        this.starts = starts;
+        this.ends = ends;
+        this.extents = extents;
+        this.items = Collections.unmodifiableList(items);
+        this.reparsed = reparsed;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return how many items were parsed
+     */
+    public int size() {
+        return size;
+    }
+
+    public int start(int item) {
+        checkItem(item);
+        return starts[item];
+    }
+
+    public int end(int item) {
+        checkItem(item);
+        return ends[item];
+    }
+
+    /**
+     * One past the furthest position the parser looked at while parsing the item. Edits before this can change it
+     *
+     * @param item
+     * @return
+     */
+    public int extent(int item) {
+        checkItem(item);
+        return extents[item];
+    }
+
+    public List<String> getItem(int item) {
+        return items.get(item);
+    }
+
+    /**
+     * Every item's results, one after the other, the way repeatUntil(item) would return them
+     *
+     * @return
+     */
+    public Optional<List<String>> getParsed() {
+        List<String> parsed = new ArrayList<>();
+        for (List<String> item : items) {
+            parsed.addAll(item);
+        }
+        return parsed.isEmpty() ? Optional.empty() : Optional.of(parsed);
+    }
+
+    /**
+     * The text after the last item
+     *
+     * @return
+     */
+    public String getRest() {
+        return text.substring(starts[size]);
+    }
+
+    /**
+     * How many items actually had to be parsed to get this result, counting the attempt that ended the document. The
+     * rest were carried over from the previous result
+     *
+     * @return
+     */
+    public int getReparsed() {
+        return reparsed;
+    }
+
+    int stopStart() {
+        return starts[size];
+    }
+
+    int stopExtent() {
+        return extents[size];
+    }
+
+    private void checkItem(int item) {
+        if (item < 0 || item >= size) {
+            throw new IndexOutOfBoundsException("Item " + item + " of " + size);
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package com.maki;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Runs a grammar in span mode without recursion. Instead of each combinator calling its children, the interpreter
+ * keeps a stack of frames on the heap: running a child pushes a frame, finishing one pops it and hands the result to
+ * the frame below. Nesting depth is then only limited by memory, never by the Java stack. Leaves never call anything,
+ * so they get no frame and just run their own span functions. Every combinator behaves exactly like its applySpans,
+ * including rewinding the input and the buffer on failure.
+ *
+ * An interpreter belongs to one ParseState, so it is only ever used by one parse at a time, and its stack is reused
+ * from parse to parse.
+ */
+final class Interpreter {
+    //What a frame is waiting for. Frames start out in CALL, and go to RETURN once they have a child running
+    private static final int CALL = 0;
+    private static final int RETURN = 1;
+    //A chain frame whose second parser is running
+    private static final int CHAINED = 2;
+
+    private Parser[] nodes = new Parser[64];
+    private int[] phases = new int[64];
+    //Where the node started, the mark it took and the buffer size it started with
+    private int[] positions = new int[64];
+    private int[] marks = new int[64];
+    private int[] sizes = new int[64];
+    //Which child or alternative is next, and for and, where the running child started
+    private int[] counters = new int[64];
+    private int[] childStarts = new int[64];
+    private int[] childSizes = new int[64];
+    //The candidates of an or, and whether they still need checking with isViable
+    private int[][] candidates = new int[64][];
+    private boolean[] exact = new boolean[64];
+    private int depth = 0;
+
+    //The result of the frame that just finished. A field so call and resume can hand back two things at once
+    private boolean lastResult;
+
+    //The child a frame wants to run next. Leaves are run straight from the loop, without a frame of their own
+    private Parser next;
+
+    //Set when an and fails after a commit, the frames up to the nearest or that catches it get thrown away
+    private boolean cutting;
+
+    boolean run(Parser root, ParserInput input, SpanBuffer spans) {
+        depth = 0;
+        int start = input.getIndex();
+        int size = spans.size();
+        int mark = root.mayCut() ? input.mark() : 0;
+        push(root);
+        boolean result = false;
+        try {
+            while (depth > 0) {
+                int frame = depth - 1;
+                Parser node = nodes[frame];
+                boolean running = phases[frame] == CALL ? call(node, frame, input, spans)
+                        : resume(node, frame, result, input, spans);
+                if (running) {
+                    Parser child = next;
+                    next = null;
+                    if (child.children().length == 0) {
+                        //The frame picks the result up next time round
+                        result = child.applySpans(input, spans);
+                    } else {
+                        push(child);
+                    }
+                    continue;
+                }
+                //The frame finished
+                result = lastResult;
+                pop();
+                if (cutting) {
+                    cutting = false;
+                    while (depth > 0 && !nodes[depth - 1].catchesCuts()) {
+                        pop();
+                    }
+                    if (depth == 0) {
+                        //No or to catch it, so the whole parse fails
+                        input.setIndex(start);
+                        input.release(mark);
+                        spans.truncate(size);
+                        return false;
+                    }
+                    rewind(depth - 1, input, spans);
+                    pop();
+                }
+            }
+            if (root.mayCut()) {
+                input.release(mark);
+            }
+        } finally {
+            Arrays.fill(nodes, 0, depth, null);
+            Arrays.fill(candidates, 0, depth, null);
+            depth = 0;
+            next = null;
+            cutting = false;
+        }
+        return result;
+    }
+
+    private void pop() {
+        depth--;
+        nodes[depth] = null;
+        candidates[depth] = null;
+    }
+
+    /**
+     * Start running a node
+     *
+     * @return true if it left a child to run in next, false if it already finished with lastResult
+     */
+    private boolean call(Parser node, int frame, ParserInput input, SpanBuffer spans) {
+        switch (node.getKind()) {
+            case MERGE: {
+                if (!input.hasNext()) {
+                    return finish(false);
+                }
+                positions[frame] = input.getIndex();
+                marks[frame] = input.mark();
+                sizes[frame] = spans.size();
+                Parser child = node.children()[0];
+                if (child.children().length == 0) {
+                    return endMerge(frame, child.applySpans(input, spans), input, spans);
+                }
+                return runChild(frame, child, input, spans);
+            }
+            case AND:
+                if (!input.hasNext()) {
+                    return finish(false);
+                }
+                positions[frame] = input.getIndex();
+                marks[frame] = input.mark();
+                sizes[frame] = spans.size();
+                return continueAnd(node, frame, 0, input, spans);
+            case OR: {
+                DispatchTable dispatch = (DispatchTable) node.getArgument();
+                int[] viable = dispatch.candidates(input);
+                candidates[frame] = viable;
+                counters[frame] = 0;
+                exact[frame] = dispatch.isExact(viable);
+                if (node.catchesCuts()) {
+                    positions[frame] = input.getIndex();
+                    marks[frame] = input.mark();
+                    sizes[frame] = spans.size();
+                }
+                return nextAlternative(node, frame, input, spans);
+            }
+            case REPEAT:
+                positions[frame] = input.getIndex();
+                marks[frame] = input.mark();
+                sizes[frame] = spans.size();
+                return continueRepeat(node, frame, 0, input, spans);
+            case REPEAT_UNTIL: {
+                Parser child = node.children()[0];
+                if (child.children().length == 0) {
+                    //A leaf can't recurse, so it may as well loop right here
+                    int size = spans.size();
+                    while (child.applySpans(input, spans)) {
+                        // keep going
+                    }
+                    return finish(spans.size() > size);
+                }
+                sizes[frame] = spans.size();
+                return runChild(frame, child, input, spans);
+            }
+            case MEMO: {
+                int position = input.getIndex();
+                MemoTable memo = input.getState().getMemoTable();
+                int entry = memo.findSpans((Integer) node.getArgument(), position);
+                if (entry >= 0) {
+                    if (!memo.matched(entry)) {
+                        return finish(false);
+                    }
+                    memo.copySpans(entry, spans);
+                    input.setIndex(memo.end(entry));
+                    return finish(true);
+                }
+                positions[frame] = position;
+                sizes[frame] = spans.size();
+                return runChild(frame, node.children()[0], input, spans);
+            }
+            case CHAIN:
+                positions[frame] = input.getIndex();
+                marks[frame] = input.mark();
+                sizes[frame] = spans.size();
+                return runChild(frame, node.children()[0], input, spans);
+            default:
+                //Leaves loop at most, so they can run directly
+                return finish(node.applySpans(input, spans));
+        }
+    }
+
+    /**
+     * Continue a node whose child just finished
+     *
+     * @return true if it left another child to run in next, false if it finished with lastResult
+     */
+    private boolean resume(Parser node, int frame, boolean matched, ParserInput input, SpanBuffer spans) {
+        switch (node.getKind()) {
+            case MERGE:
+                return endMerge(frame, matched, input, spans);
+            case AND:
+                if (!matched) {
+                    return failAnd(node, frame, counters[frame], input, spans);
+                }
+                //Each child of an and is collapsed into the one span it consumed
+                spans.truncate(childSizes[frame]);
+                spans.add(childStarts[frame], input.getIndex());
+                return continueAnd(node, frame, counters[frame] + 1, input, spans);
+            case OR:
+                if (matched) {
+                    return endOr(node, frame, true, input);
+                }
+                return nextAlternative(node, frame, input, spans);
+            case REPEAT:
+                if (!matched) {
+                    return rewind(frame, input, spans);
+                }
+                return continueRepeat(node, frame, counters[frame] + 1, input, spans);
+            case REPEAT_UNTIL:
+                if (matched) {
+                    return runChild(frame, node.children()[0], input, spans);
+                }
+                return finish(spans.size() > sizes[frame]);
+            case MEMO:
+                input.getState().getMemoTable().putSpans((Integer) node.getArgument(), positions[frame],
+                        input.getIndex(), matched, spans, sizes[frame]);
+                return finish(matched);
+            case CHAIN:
+                return resumeChain(node, frame, matched, input, spans);
+            default:
+                throw new IllegalStateException(node.getKind() + " has no children to return from");
+        }
+    }
+
+    private boolean resumeChain(Parser node, int frame, boolean matched, ParserInput input, SpanBuffer spans) {
+        if (phases[frame] == CHAINED) {
+            if (!matched) {
+                input.setIndex(positions[frame]);
+            }
+            input.release(marks[frame]);
+            return finish(matched);
+        }
+        if (!matched) {
+            input.release(marks[frame]);
+            return finish(false);
+        }
+
+        //The function only understands strings, so this is the one place span mode has to build them
+        int size = sizes[frame];
+        List<String> result = new ArrayList<>(spans.size() - size);
+        for (int i = size; i < spans.size(); i++) {
+            result.add(input.slice(spans.start(i), spans.end(i)).toString());
+        }
+        spans.truncate(size);
+
+        @SuppressWarnings("unchecked")
+        Function<List<String>, Parser> function = (Function<List<String>, Parser>) node.getArgument();
+        phases[frame] = CHAINED;
+        next = function.apply(result);
+        return true;
+    }
+
+    private boolean endMerge(int frame, boolean matched, ParserInput input, SpanBuffer spans) {
+        if (!matched) {
+            return rewind(frame, input, spans);
+        }
+        input.release(marks[frame]);
+        spans.truncate(sizes[frame]);
+        spans.add(positions[frame], input.getIndex());
+        return finish(true);
+    }
+
+    /**
+     * Run the children of an and from the given one on. Leaves run right here, the first child that isn't one is
+     * handed to the loop
+     */
+    private boolean continueAnd(Parser node, int frame, int child, ParserInput input, SpanBuffer spans) {
+        Parser[] children = node.children();
+        for (; child < children.length; child++) {
+            Parser parser = children[child];
+            if (parser.children().length != 0) {
+                counters[frame] = child;
+                return runChild(frame, parser, input, spans);
+            }
+            int start = input.getIndex();
+            int size = spans.size();
+            if (!parser.applySpans(input, spans)) {
+                return failAnd(node, frame, child, input, spans);
+            }
+            spans.truncate(size);
+            if (parser.getKind() != Parser.Kind.COMMIT) {
+                spans.add(start, input.getIndex());
+            }
+        }
+        input.release(marks[frame]);
+        return finish(true);
+    }
+
+    /**
+     * Fail an and whose child failed, and start cutting if a child before it committed
+     */
+    private boolean failAnd(Parser node, int frame, int failed, ParserInput input, SpanBuffer spans) {
+        Parser[] children = node.children();
+        for (int i = 0; i < failed; i++) {
+            if (children[i].cuts()) {
+                cutting = true;
+                break;
+            }
+        }
+        return rewind(frame, input, spans);
+    }
+
+    /**
+     * Carry on with a repeat that has matched count times so far
+     */
+    private boolean continueRepeat(Parser node, int frame, int count, ParserInput input, SpanBuffer spans) {
+        int times = (Integer) node.getArgument();
+        Parser child = node.children()[0];
+        if (child.children().length == 0) {
+            for (; count < times; count++) {
+                if (!child.applySpans(input, spans)) {
+                    return rewind(frame, input, spans);
+                }
+            }
+        }
+        if (count == times) {
+            input.release(marks[frame]);
+            return finish(true);
+        }
+        counters[frame] = count;
+        return runChild(frame, child, input, spans);
+    }
+
+    /**
+     * Pick the next alternative of an or that could match, or fail if there isn't one
+     */
+    private boolean nextAlternative(Parser node, int frame, ParserInput input, SpanBuffer spans) {
+        DispatchTable dispatch = (DispatchTable) node.getArgument();
+        int[] viable = candidates[frame];
+        Parser[] alternatives = node.children();
+        for (int i = counters[frame]; i < viable.length; i++) {
+            if (!exact[frame] && !dispatch.isViable(viable[i], input)) {
+                continue;
+            }
+            Parser alternative = alternatives[viable[i]];
+            if (alternative.children().length == 0) {
+                //Failed alternatives never move the input in span mode, so leaves can be tried right here
+                if (alternative.applySpans(input, spans)) {
+                    return endOr(node, frame, true, input);
+                }
+                continue;
+            }
+            counters[frame] = i + 1;
+            phases[frame] = RETURN;
+            next = alternative;
+            return true;
+        }
+        return endOr(node, frame, false, input);
+    }
+
+    private boolean endOr(Parser node, int frame, boolean matched, ParserInput input) {
+        if (node.catchesCuts()) {
+            input.release(marks[frame]);
+        }
+        return finish(matched);
+    }
+
+    private boolean runChild(int frame, Parser child, ParserInput input, SpanBuffer spans) {
+        phases[frame] = RETURN;
+        childStarts[frame] = input.getIndex();
+        childSizes[frame] = spans.size();
+        next = child;
+        return true;
+    }
+
+    /**
+     * Fail a frame that took a mark, putting the input and buffer back the way it found them
+     */
+    private boolean rewind(int frame, ParserInput input, SpanBuffer spans) {
+        input.setIndex(positions[frame]);
+        input.release(marks[frame]);
+        spans.truncate(sizes[frame]);
+        return finish(false);
+    }
+
+    private boolean finish(boolean matched) {
+        lastResult = matched;
+        return false;
+    }
+
+    private void push(Parser node) {
+        if (depth == nodes.length) {
+            int length = depth * 2;
+            nodes = Arrays.copyOf(nodes, length);
+            phases = Arrays.copyOf(phases, length);
+            positions = Arrays.copyOf(positions, length);
+            marks = Arrays.copyOf(marks, length);
+            sizes = Arrays.copyOf(sizes, length);
+            counters = Arrays.copyOf(counters, length);
+            childStarts = Arrays.copyOf(childStarts, length);
+            childSizes = Arrays.copyOf(childSizes, length);
+            candidates = Arrays.copyOf(candidates, length);
+            exact = Arrays.copyOf(exact, length);
+        }
+        nodes[depth] = node;
+        phases[depth] = CALL;
+        depth++;
+    }
+}
@@ -0,0 +1,92 @@
+package com.maki;
+
+import java.util.Optional;
+
+/**
+ * Wraps the input of a traced parse to report rewinds to the listener. Everything else goes straight to the wrapped
+ * input, including its faster bulk operations
+ */
+class ListeningInput implements ParserInput {
+    private final ParserInput input;
+
+    private final ParseListener listener;
+
+    ListeningInput(ParserInput input, ParseListener listener) {
+        this.input = input;
+        this.listener = listener;
+    }
+
+    @Override
+    public char read() {
+        return input.read();
+    }
+
+    @Override
+    public void advance() {
+        input.advance();
+    }
+
+    @Override
+    public void setIndex(int index) {
+        int from = input.getIndex();
+        input.setIndex(index);
+        if (index < from) {
+            listener.onBacktrack(from, index);
+        }
+    }
+
+    @Override
+    public int getIndex() {
+        return input.getIndex();
+    }
+
+    @Override
+    public int mark() {
+        return input.mark();
+    }
+
+    @Override
+    public void release(int mark) {
+        input.release(mark);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return input.hasNext();
+    }
+
+    @Override
+    public Optional<?> rest() {
+        return input.rest();
+    }
+
+    @Override
+    public CharSequence slice(int start, int end) {
+        return input.slice(start, end);
+    }
+
+    @Override
+    public int advanceWhile(CharClass chars) {
+        return input.advanceWhile(chars);
+    }
+
+    @Override
+    public int advanceUntilAny(char[] delimiters) {
+        return input.advanceUntilAny(delimiters);
+    }
+
+    @Override
+    public boolean match(String text) {
+        return input.match(text);
+    }
+
+    @Override
+    public CharSequence asCharSequence() {
+        return input.asCharSequence();
+    }
+
+    @Override
+    public ParseState getState() {
+        return input.getState();
+    }
+}
@@ -0,0 +1,29 @@
+package com.maki;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a UTF-8 file through a memory map, so the file is never copied onto the heap. The index is a byte offset into
+ * the file, decoding happens one char at a time as the parser reads.
+ */
+public class MappedFileInput extends Utf8Input {
+
+    public MappedFileInput(Path path) throws IOException {
+        super(map(path));
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(path + " is " + size + " bytes, files over 2GB can't be mapped");
+            }
+            //The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+}
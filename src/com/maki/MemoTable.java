@@ -0,0 +1,173 @@
+package com.maki;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Remembers what a memoized parser did at a given position. Keyed by (parser id, position) packed into a long, in an
+ * open addressing table, with the entries themselves stored in parallel primitive arrays. Span results are copied
+ * into one shared int pool. List mode and span mode entries are kept apart, since one parse can run the same memo
+ * both ways (typed parsers do) and each mode can only use what it stored itself.
+ */
+final class MemoTable {
+    private long[] keys = new long[64];
+    private int[] slots = new int[64];
+    private int count = 0;
+
+    private int[] ends = new int[32];
+    private boolean[] matched = new boolean[32];
+    private int[] spanStarts = new int[32];
+    private int[] spanCounts = new int[32];
+    private Object[] lists = new Object[32];
+    //Where each entry's key is in the table, so clear only has to visit the slots that were used
+    private int[] keySlots = new int[32];
+
+    private int[] spanPool = new int[64];
+    private int poolSize = 0;
+
+    /**
+     * @return the list mode entry for the parser at the position, or -1 if it hasn't run there yet in list mode
+     */
+    int findList(int id, int position) {
+        return find(key(id, position, false));
+    }
+
+    /**
+     * @return the span mode entry for the parser at the position, or -1 if it hasn't run there yet in span mode
+     */
+    int findSpans(int id, int position) {
+        return find(key(id, position, true));
+    }
+
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slots[slot];
+            }
+        }
+        return -1;
+    }
+
+    int end(int entry) {
+        return ends[entry];
+    }
+
+    boolean matched(int entry) {
+        return matched[entry];
+    }
+
+    @SuppressWarnings("unchecked")
+    List<String> list(int entry) {
+        return (List<String>) lists[entry];
+    }
+
+    /**
+     * Append the spans remembered for the entry to the buffer
+     */
+    void copySpans(int entry, SpanBuffer spans) {
+        int start = spanStarts[entry];
+        for (int i = 0; i < spanCounts[entry]; i++) {
+            spans.add(spanPool[start + i * 2], spanPool[start + i * 2 + 1]);
+        }
+    }
+
+    void putList(int id, int position, int end, List<String> result) {
+        int entry = put(key(id, position, false), end, result != null);
+        lists[entry] = result;
+    }
+
+    /**
+     * Remember the spans in the buffer from index from onwards
+     */
+    void putSpans(int id, int position, int end, boolean success, SpanBuffer spans, int from) {
+        int entry = put(key(id, position, true), end, success);
+        int spanCount = success ? spans.size() - from : 0;
+        if (poolSize + spanCount * 2 > spanPool.length) {
+            spanPool = Arrays.copyOf(spanPool, Math.max(spanPool.length * 2, poolSize + spanCount * 2));
+        }
+        spanStarts[entry] = poolSize;
+        spanCounts[entry] = spanCount;
+        for (int i = 0; i < spanCount; i++) {
+            spanPool[poolSize++] = spans.start(from + i);
+            spanPool[poolSize++] = spans.end(from + i);
+        }
+    }
+
+    /**
+     * Forget every entry but keep the arrays, so the next parse doesn't have to grow them again. Only the slots that
+     * were used are cleared, a table grown by one big parse costs little to clear after many small ones
+     */
+    void clear() {
+        if (count == 0) {
+            return;
+        }
+        if (count * 8 < keys.length) {
+            for (int i = 0; i < count; i++) {
+                keys[keySlots[i]] = 0;
+            }
+        } else {
+            Arrays.fill(keys, 0);
+        }
+        Arrays.fill(lists, 0, count, null);
+        count = 0;
+        poolSize = 0;
+    }
+
+    int capacity() {
+        return keys.length;
+    }
+
+    private int put(long key, int end, boolean success) {
+        if ((count + 1) * 2 > keys.length) {
+            rehash();
+        }
+        if (count == ends.length) {
+            int capacity = count * 2;
+            ends = Arrays.copyOf(ends, capacity);
+            matched = Arrays.copyOf(matched, capacity);
+            spanStarts = Arrays.copyOf(spanStarts, capacity);
+            spanCounts = Arrays.copyOf(spanCounts, capacity);
+            lists = Arrays.copyOf(lists, capacity);
+            keySlots = Arrays.copyOf(keySlots, capacity);
+        }
+        int entry = count++;
+        ends[entry] = end;
+        matched[entry] = success;
+        insert(key, entry);
+        return entry;
+    }
+
+    private void insert(long key, int entry) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        slots[slot] = entry;
+        keySlots[entry] = slot;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldKeys.length * 2];
+        slots = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                insert(oldKeys[i], oldSlots[i]);
+            }
+        }
+    }
+
+    //Parser ids start at 1, so a real key is never 0. Ids are positive ints, which leaves the top bit for the mode
+    private static long key(int id, int position, boolean spans) {
+        return (spans ? Long.MIN_VALUE : 0) | ((long) id << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,117 @@
+package com.maki;
+
+/**
+ * Everything a parse needs besides the parser, kept so it can be used again: an input that is pointed at each new
+ * string, a span buffer, a result, and the parse state with its memo table and interpreter stack. Parsing a stream of
+ * small snippets through one context allocates next to nothing once the buffers have grown to fit.
+ *
+ * A context belongs to one thread at a time, and every result it returns is only good until its next parse. The
+ * simplest way to use one from a pool of request threads is {@link #current()}, which gives each thread its own
+ */
+public final class ParseContext {
+    private static final ThreadLocal<ParseContext> CURRENT = ThreadLocal.withInitial(ParseContext::new);
+
+    private final StringInput input = new StringInput("");
+    private final SpanBuffer spans = new SpanBuffer();
+    private final SpanResult result = new SpanResult(false, spans, input);
+
+    //Set while a parse is running, to catch a chain function that parses with the same context
+    private boolean busy;
+
+    public ParseContext() {
+        input.getState().setReusable();
+    }
+
+    /**
+     * This thread's context. Don't hand it, or anything it returned, to another thread
+     *
+     * @return
+     */
+    public static ParseContext current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Parse the text in span mode
+     *
+     * @param parser
+     * @param text
+     * @return the context's result, which the next parse overwrites
+     */
+    public SpanResult parseSpans(Parser parser, String text) {
+        return parseSpans(parser, text, 0, text.length());
+    }
+
+    /**
+     * Parse part of the text in span mode, without taking a substring. Spans are positions in the whole text
+     *
+     * @param parser
+     * @param text
+     * @param start
+     * @param end
+     * @return the context's result, which the next parse overwrites
+     */
+    public SpanResult parseSpans(Parser parser, String text, int start, int end) {
+        enter(text, start, end);
+        try {
+            result.setMatched(parser.runSpans(input, spans));
+            return result;
+        } finally {
+            busy = false;
+        }
+    }
+
+    /**
+     * {@link Parser#interpret(String)} on this context, reusing its interpreter stack
+     *
+     * @param parser
+     * @param text
+     * @return the context's result, which the next parse overwrites
+     */
+    public SpanResult interpret(Parser parser, String text) {
+        enter(text, 0, text.length());
+        try {
+            spans.clear();
+            boolean matched = input.getState().getInterpreter().run(parser, input, spans);
+            input.getState().reset();
+            result.setMatched(matched);
+            return result;
+        } finally {
+            busy = false;
+        }
+    }
+
+    /**
+     * Parse the text in list mode. The input and parse state are reused, but the result lists are new every time,
+     * since they're the result
+     *
+     * @param parser
+     * @param text
+     * @return
+     */
+    public ParserResult parse(Parser parser, String text) {
+        enter(text, 0, text.length());
+        try {
+            return parser.parse(input);
+        } finally {
+            busy = false;
+        }
+    }
+
+    /**
+     * Where the last parse stopped
+     *
+     * @return
+     */
+    public int getIndex() {
+        return input.getIndex();
+    }
+
+    private void enter(String text, int start, int end) {
+        if (busy) {
+            throw new IllegalStateException("The context is already parsing, use another one for nested parses");
+        }
+        input.reset(text, start, end);
+        busy = true;
+    }
+}
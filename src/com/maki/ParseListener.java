@@ -0,0 +1,56 @@
+package com.maki;
+
+/**
+ * Gets told what a parser is doing while it runs. Only parsers built with {@link Parser#traced(ParseListener)} call
+ * a listener, every other parser runs exactly as before. A listener can be called from many threads at once if the
+ * traced parser is shared, so implementations have to be thread safe. Every method does nothing by default
+ */
+public interface ParseListener {
+    /**
+     * A parse is about to start
+     *
+     * @param parser the traced parser doing the parse
+     */
+    default void onParseStart(Parser parser) {
+    }
+
+    /**
+     * A parse finished
+     *
+     * @param parser
+     * @param matched
+     * @param consumed how far the index moved
+     * @param nanos how long the parse took
+     */
+    default void onParseEnd(Parser parser, boolean matched, int consumed, long nanos) {
+    }
+
+    /**
+     * A node of the grammar is about to run
+     *
+     * @param parser the node, as it was in the grammar that was traced
+     * @param index
+     */
+    default void onEnter(Parser parser, int index) {
+    }
+
+    /**
+     * A node of the grammar finished running. A failed node has usually rewound, so end is the same as start
+     *
+     * @param parser
+     * @param start
+     * @param end
+     * @param matched
+     */
+    default void onExit(Parser parser, int start, int end, boolean matched) {
+    }
+
+    /**
+     * The parser rewound the input to try something else
+     *
+     * @param from
+     * @param to
+     */
+    default void onBacktrack(int from, int to) {
+    }
+}
@@ -0,0 +1,138 @@
+package com.maki;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listener that counts. Every counter is a LongAdder, so threads sharing one traced parser don't contend on
+ * anything. Read the counters whenever you like, or take a {@link #snapshot()} to export them
+ */
+public class ParseMetrics implements ParseListener {
+    private final LongAdder parses = new LongAdder();
+    private final LongAdder failedParses = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder charsConsumed = new LongAdder();
+    private final LongAdder backtracks = new LongAdder();
+    private final LongAdder charsBacktracked = new LongAdder();
+
+    //Filled in up front and never changed after, so reading them needs no locking
+    private final Map<Parser.Kind, LongAdder> invocations = new EnumMap<>(Parser.Kind.class);
+    private final Map<Parser.Kind, LongAdder> failures = new EnumMap<>(Parser.Kind.class);
+
+    public ParseMetrics() {
+        for (Parser.Kind kind : Parser.Kind.values()) {
+            invocations.put(kind, new LongAdder());
+            failures.put(kind, new LongAdder());
+        }
+    }
+
+    @Override
+    public void onParseEnd(Parser parser, boolean matched, int consumed, long nanos) {
+        parses.increment();
+        if (!matched) {
+            failedParses.increment();
+        }
+        parseNanos.add(nanos);
+        charsConsumed.add(consumed);
+    }
+
+    @Override
+    public void onExit(Parser parser, int start, int end, boolean matched) {
+        invocations.get(parser.getKind()).increment();
+        if (!matched) {
+            failures.get(parser.getKind()).increment();
+        }
+    }
+
+    @Override
+    public void onBacktrack(int from, int to) {
+        backtracks.increment();
+        charsBacktracked.add(from - to);
+    }
+
+    public long getParses() {
+        return parses.sum();
+    }
+
+    public long getFailedParses() {
+        return failedParses.sum();
+    }
+
+    public long getParseNanos() {
+        return parseNanos.sum();
+    }
+
+    public long getCharsConsumed() {
+        return charsConsumed.sum();
+    }
+
+    public long getBacktracks() {
+        return backtracks.sum();
+    }
+
+    public long getCharsBacktracked() {
+        return charsBacktracked.sum();
+    }
+
+    /**
+     * How many times nodes of this kind ran
+     *
+     * @param kind
+     * @return
+     */
+    public long getInvocations(Parser.Kind kind) {
+        return invocations.get(kind).sum();
+    }
+
+    /**
+     * How many times nodes of this kind failed
+     *
+     * @param kind
+     * @return
+     */
+    public long getFailures(Parser.Kind kind) {
+        return failures.get(kind).sum();
+    }
+
+    /**
+     * Every counter by name, e.g. "parses" or "invocations.or". Kinds that never ran are left out
+     *
+     * @return
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        snapshot.put("parses", getParses());
+        snapshot.put("parses.failed", getFailedParses());
+        snapshot.put("parse.nanos", getParseNanos());
+        snapshot.put("chars.consumed", getCharsConsumed());
+        snapshot.put("backtracks", getBacktracks());
+        snapshot.put("chars.backtracked", getCharsBacktracked());
+        for (Parser.Kind kind : Parser.Kind.values()) {
+            long count = getInvocations(kind);
+            if (count > 0) {
+                String name = kind.name().toLowerCase();
+                snapshot.put("invocations." + name, count);
+                snapshot.put("failures." + name, getFailures(kind));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Set every counter back to zero. Counts from parses running at the same time may or may not survive
+     */
+    public void reset() {
+        parses.reset();
+        failedParses.reset();
+        parseNanos.reset();
+        charsConsumed.reset();
+        backtracks.reset();
+        charsBacktracked.reset();
+        for (Parser.Kind kind : Parser.Kind.values()) {
+            invocations.get(kind).reset();
+            failures.get(kind).reset();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.maki;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A listener that profiles every node of the grammar: how often it ran and failed, how many chars it consumed, how
+ * many chars were rewound while it was running (and so get scanned again), and how long it took, both with and
+ * without its children. Where {@link ParseMetrics} counts by kind, this tells which or, and which of its
+ * alternatives, is the one wasting time.
+ *
+ * {@link #report()} lists the nodes by self time, and {@link #writeCollapsed(Appendable)} writes the call stacks in
+ * the collapsed format flame graph tools read. Timing every node costs two nanoTime calls per node, so profile a
+ * copy of the grammar made with {@link Parser#traced(ParseListener)}, not the one serving requests. Threads can
+ * share a profiler.
+ */
+public class ParseProfiler implements ParseListener {
+    //Longer descriptions of nodes are cut, a node's toString holds its whole subtree
+    private static final int MAX_LABEL = 60;
+
+    private final Map<Parser, NodeProfile> profiles = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    //Call stacks as a tree of nodes, weighted by self time
+    private final StackNode stacks = new StackNode(null);
+
+    private final ThreadLocal<Deque<Frame>> running = ThreadLocal.withInitial(ArrayDeque::new);
+
+    @Override
+    public void onParseStart(Parser parser) {
+        //Whatever is still on the stack was left by a parse that threw part way, don't nest this one under it
+        running.get().clear();
+    }
+
+    @Override
+    public void onEnter(Parser parser, int index) {
+        Deque<Frame> frames = running.get();
+        Frame parent = frames.peek();
+        StackNode stack = (parent == null ? stacks : parent.stack).child(parser, profile(parser));
+        frames.push(new Frame(parser, stack, System.nanoTime()));
+    }
+
+    @Override
+    public void onExit(Parser parser, int start, int end, boolean matched) {
+        long now = System.nanoTime();
+        Deque<Frame> frames = running.get();
+        Frame frame = frames.poll();
+        //Frames that never exited, so the counts stay right even if a node's exit went missing
+        while (frame != null && frame.parser != parser) {
+            frame = frames.poll();
+        }
+        if (frame == null) {
+            return;
+        }
+        long nanos = now - frame.startTime;
+        long self = nanos - frame.childNanos;
+        Frame parent = frames.peek();
+        if (parent != null) {
+            parent.childNanos += nanos;
+        }
+
+        NodeProfile profile = frame.stack.profile;
+        profile.invocations.increment();
+        if (matched) {
+            profile.charsConsumed.add(end - start);
+        } else {
+            profile.failures.increment();
+        }
+        profile.nanos.add(nanos);
+        profile.selfNanos.add(self);
+        profile.charsRewound.add(frame.charsRewound);
+        frame.stack.selfNanos.add(self);
+    }
+
+    @Override
+    public void onBacktrack(int from, int to) {
+        Frame frame = running.get().peek();
+        if (frame != null) {
+            frame.charsRewound += from - to;
+        }
+    }
+
+    /**
+     * The profile of one node of the grammar that was traced, or null if it never ran
+     *
+     * @param parser the node, from the grammar before tracing
+     * @return
+     */
+    public NodeProfile getProfile(Parser parser) {
+        return profiles.get(parser);
+    }
+
+    /**
+     * Every node that ran, most self time first
+     *
+     * @return
+     */
+    public List<NodeProfile> getProfiles() {
+        List<NodeProfile> sorted = new ArrayList<>(profiles.values());
+        sorted.sort(Comparator.comparingLong(NodeProfile::getSelfNanos).reversed()
+                .thenComparingInt(NodeProfile::getId));
+        return sorted;
+    }
+
+    /**
+     * A table of every node that ran, most self time first. Total time counts a recursive node once per level it is
+     * on the stack
+     *
+     * @return
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%10s %10s %10s %10s %10s %10s  %s%n",
+                "self ms", "total ms", "calls", "failed", "consumed", "rewound", "node"));
+        for (NodeProfile profile : getProfiles()) {
+            report.append(String.format("%10.3f %10.3f %10d %10d %10d %10d  %s%n",
+                    profile.getSelfNanos() / 1e6, profile.getNanos() / 1e6, profile.getInvocations(),
+                    profile.getFailures(), profile.getCharsConsumed(), profile.getCharsRewound(),
+                    profile.getLabel()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Write one line per call stack, its frames separated by semicolons and followed by its self time in nanoseconds,
+     * which is what flamegraph.pl and speedscope read
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeCollapsed(Appendable out) throws IOException {
+        //Its own stack, call stacks can be deeper than this thread's
+        Deque<StackNode> nodes = new ArrayDeque<>();
+        Deque<String> paths = new ArrayDeque<>();
+        nodes.push(stacks);
+        paths.push("");
+        while (!nodes.isEmpty()) {
+            StackNode node = nodes.pop();
+            String path = paths.pop();
+            long self = node.selfNanos.sum();
+            if (self > 0) {
+                out.append(path).append(' ').append(Long.toString(self)).append('\n');
+            }
+            List<StackNode> children = new ArrayList<>(node.children.values());
+            children.sort(Comparator.comparingInt((StackNode child) -> child.profile.getId()).reversed());
+            for (StackNode child : children) {
+                nodes.push(child);
+                paths.push(path.isEmpty() ? child.profile.getLabel() : path + ";" + child.profile.getLabel());
+            }
+        }
+    }
+
+    /**
+     * {@link #writeCollapsed(Appendable)} into a string
+     *
+     * @return
+     */
+    public String collapsedStacks() {
+        StringBuilder out = new StringBuilder();
+        try {
+            writeCollapsed(out);
+        } catch (IOException e) {
+            //StringBuilder doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Forget everything. Parses running at the same time may leave some of their counts behind
+     */
+    public void reset() {
+        profiles.clear();
+        nextId.set(0);
+        stacks.children.clear();
+        stacks.selfNanos.reset();
+    }
+
+    private NodeProfile profile(Parser parser) {
+        NodeProfile profile = profiles.get(parser);
+        if (profile == null) {
+            profile = profiles.computeIfAbsent(parser, node -> new NodeProfile(nextId.incrementAndGet(), node));
+        }
+        return profile;
+    }
+
+    /**
+     * What one node of the grammar did. Counts keep growing while parses run
+     */
+    public static final class NodeProfile {
+        private final int id;
+        private final Parser parser;
+        private volatile String label;
+
+        private final LongAdder invocations = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder charsConsumed = new LongAdder();
+        private final LongAdder charsRewound = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder selfNanos = new LongAdder();
+
+        private NodeProfile(int id, Parser parser) {
+            this.id = id;
+            this.parser = parser;
+        }
+
+        /**
+         * Numbered in the order the nodes first ran, to tell apart nodes that print the same
+         *
+         * @return
+         */
+        public int getId() {
+            return id;
+        }
+
+        public Parser getParser() {
+            return parser;
+        }
+
+        /**
+         * The id and the start of the node's toString, safe to use as a frame in collapsed stacks
+         *
+         * @return
+         */
+        public String getLabel() {
+            if (label == null) {
+                String text = parser.toString();
+                if (text.length() > MAX_LABEL) {
+                    text = text.substring(0, MAX_LABEL - 3) + "...";
+                }
+                StringBuilder built = new StringBuilder().append('#').append(id).append(' ');
+                for (int i = 0; i < text.length(); i++) {
+                    char c = text.charAt(i);
+                    built.append(c == ';' ? ',' : c < ' ' ? '?' : c);
+                }
+                label = built.toString();
+            }
+            return label;
+        }
+
+        public long getInvocations() {
+            return invocations.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        /**
+         * Chars consumed by the times it matched
+         *
+         * @return
+         */
+        public long getCharsConsumed() {
+            return charsConsumed.sum();
+        }
+
+        /**
+         * Chars the input was rewound by while this node was the innermost one running. They will be read again
+         *
+         * @return
+         */
+        public long getCharsRewound() {
+            return charsRewound.sum();
+        }
+
+        /**
+         * Time spent in the node and its children
+         *
+         * @return
+         */
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        /**
+         * Time spent in the node itself
+         *
+         * @return
+         */
+        public long getSelfNanos() {
+            return selfNanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return getLabel();
+        }
+    }
+
+    /**
+     * A node as it was running, on its thread's stack
+     */
+    private static final class Frame {
+        private final Parser parser;
+        private final StackNode stack;
+        private final long startTime;
+        private long childNanos;
+        private int charsRewound;
+
+        private Frame(Parser parser, StackNode stack, long startTime) {
+            this.parser = parser;
+            this.stack = stack;
+            this.startTime = startTime;
+        }
+    }
+
+    /**
+     * One call stack, reached by running its node from its parent's stack
+     */
+    private static final class StackNode {
+        private final NodeProfile profile;
+        private final Map<Parser, StackNode> children = new ConcurrentHashMap<>();
+        private final LongAdder selfNanos = new LongAdder();
+
+        private StackNode(NodeProfile profile) {
+            this.profile = profile;
+        }
+
+        private StackNode child(Parser parser, NodeProfile profile) {
+            StackNode child = children.get(parser);
+            if (child == null) {
+                child = children.computeIfAbsent(parser, node -> new StackNode(profile));
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.maki;
+
+/**
+ * Scratch state that belongs to a single parse, like memo tables. Every ParserInput owns one, and it is thrown away
+ * when the parse finishes.
+ */
+public class ParseState {
+    //A reusable state that once memoized a huge document drops the table instead of holding on to it
+    private static final int MAX_KEPT_MEMO_CAPACITY = 1 << 16;
+
+    private MemoTable memoTable;
+
+    //Whether the state outlives the parse, in which case the memo table is cleared instead of thrown away
+    private boolean reusable;
+
+    //Kept across resets, its stack is empty between parses and worth reusing
+    private Interpreter interpreter;
+
+    //Scratch spans for typed parsers running untyped ones. Also kept, it is cleared before every use
+    private SpanBuffer spans;
+
+    MemoTable getMemoTable() {
+        if (memoTable == null) {
+            memoTable = new MemoTable();
+        }
+        return memoTable;
+    }
+
+    Interpreter getInterpreter() {
+        if (interpreter == null) {
+            interpreter = new Interpreter();
+        }
+        return interpreter;
+    }
+
+    SpanBuffer getSpanBuffer() {
+        if (spans == null) {
+            spans = new SpanBuffer();
+        }
+        return spans;
+    }
+
+    /**
+     * Drop everything that was collected during the last parse
+     */
+    public void reset() {
+        if (reusable && memoTable != null && memoTable.capacity() <= MAX_KEPT_MEMO_CAPACITY) {
+            memoTable.clear();
+        } else {
+            memoTable = null;
+        }
+    }
+
+    /**
+     * Keep the memo table's arrays from one parse to the next, for inputs that are reset and parsed again
+     */
+    void setReusable() {
+        reusable = true;
+    }
+}
@@ -1,19 +1,158 @@
 package com.maki;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
-import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Created by trentonmaki on 7/15/15.
+ *
+ * Parsers are immutable and keep no state between or during parses, everything a parse needs lives in its
+ * ParserInput. So one parser can be shared by any number of threads parsing at the same time, as long as the functions
+ * given to chain are thread safe too.
  */
 public class Parser {
-    private Function<ParserInput, Optional<List<String>>> function;
+    //Ids start at 1 so memo keys are never 0
+    private static final AtomicInteger memoIds = new AtomicInteger(1);
 
-    private Parser(Function<ParserInput, Optional<List<String>>> function) {
+    private static final Parser[] NO_CHILDREN = new Parser[0];
+
+    //Past this many delimiters, checking each one costs more than a CharClass lookup
+    private static final int MAX_SCAN_DELIMITERS = 4;
+
+    /**
+     * The node types of a grammar
+     */
+    public enum Kind {
+        LITERAL, STRING, ANY, ANY_EXCEPT, CHAR_IN, TAKE_WHILE, SKIP_UNTIL, SCAN_UNTIL, REGEX, OR, AND, MERGE,
+        REPEAT, REPEAT_UNTIL, MEMO, FAIL, CHAIN, COMMIT
+    }
+
+    private final Function<ParserInput, Optional<List<String>>> function;
+
+    /**
+     * The span mode version of function. Writes (start, end) offsets to the buffer instead of building strings. On
+     * failure it has to leave both the input index and the buffer the way it found them
+     */
+    private final BiPredicate<ParserInput, SpanBuffer> spanFunction;
+
+    /**
+     * Every character this parser can start with. null when that's not known, or when the parser can succeed without
+     * reading anything
+     */
+    private final CharClass first;
+
+    /**
+     * What kind of combinator built this parser. Together with the argument and the children this describes the
+     * grammar, the functions are just its executable form
+     */
+    private final Kind kind;
+
+    /**
+     * The char, string, class, count or function the combinator was given, if any. For an or its dispatch table,
+     * and for a memo its id
+     */
+    private final Object argument;
+
+    /**
+     * The parsers this one runs. For an or these are the flattened alternatives, in the order they are tried
+     */
+    private final Parser[] children;
+
+    /**
+     * Set only on the root of a traced grammar, so untraced parses pay nothing but one null check
+     */
+    private final ParseListener listener;
+
+    /**
+     * Whether this parser contains a commit that isn't inside an or of its own, so an and running it is committed
+     * once it succeeds
+     */
+    private final boolean cuts;
+
+    /**
+     * Whether running this parser could end in a CutFailure, which is the case when it cuts or runs a chain
+     */
+    private final boolean mayCut;
+
+    /**
+     * Whether this is an or that has to catch CutFailures from its alternatives
+     */
+    private final boolean catchesCuts;
+
+    /**
+     * Whether this parser's results, joined together, are exactly the text it consumed. When it's true, merging the
+     * results is just a slice of the input. Chain breaks it, since it drops the results of its first parser, and so
+     * does an or or repeatUntil whose children can fail in list mode without rewinding what they consumed
+     */
+    private final boolean textual;
+
+    /**
+     * Whether this parser always rewinds when it fails in list mode. repeat and chain don't
+     */
+    private final boolean rewinds;
+
+    private Parser(Kind kind, Object argument, Parser[] children,
+                   Function<ParserInput, Optional<List<String>>> function,
+                   BiPredicate<ParserInput, SpanBuffer> spanFunction, CharClass first) {
+        this(kind, argument, children, function, spanFunction, first, null);
+    }
+
+    private Parser(Kind kind, Object argument, Parser[] children,
+                   Function<ParserInput, Optional<List<String>>> function,
+                   BiPredicate<ParserInput, SpanBuffer> spanFunction, CharClass first, ParseListener listener) {
+        this.kind = kind;
+        this.argument = argument;
+        this.children = children;
         this.function = function;
+        this.spanFunction = spanFunction;
+        this.first = first;
+        this.listener = listener;
+
+        boolean cuts = kind == Kind.COMMIT;
+        boolean mayCut = cuts || kind == Kind.CHAIN;
+        boolean textual = kind != Kind.CHAIN;
+        boolean childrenRewind = true;
+        for (Parser child : children) {
+            cuts |= child.cuts;
+            mayCut |= child.mayCut;
+            textual &= child.textual;
+            childrenRewind &= child.rewinds;
+        }
+        switch (kind) {
+            case OR:
+            case REPEAT_UNTIL:
+                //These carry on after a child fails
+                this.textual = textual && childrenRewind;
+                this.rewinds = childrenRewind;
+                break;
+            case MEMO:
+                this.textual = textual;
+                this.rewinds = childrenRewind;
+                break;
+            case REPEAT:
+            case CHAIN:
+                this.textual = textual;
+                this.rewinds = false;
+                break;
+            default:
+                this.textual = textual;
+                this.rewinds = true;
+        }
+        this.catchesCuts = kind == Kind.OR && mayCut;
+        this.cuts = kind != Kind.OR && cuts;
+        this.mayCut = kind != Kind.OR && mayCut;
     }
 
     /**
@@ -24,7 +163,7 @@ public class Parser {
      * @return
      */
     public static Parser literal(char compareChar) {
-        return new Parser((input -> {
+        return new Parser(Kind.LITERAL, compareChar, NO_CHILDREN, (input -> {
             if (input.hasNext()) {
                 char inputChar = input.read();
                 if (inputChar == compareChar) {
@@ -39,7 +178,43 @@ public class Parser {
                 return Optional.empty();
             }
         }
-        ));
+        ), (input, spans) -> {
+            if (input.hasNext() && input.read() == compareChar) {
+                int start = input.getIndex();
+                input.advance();
+                spans.add(start, input.getIndex());
+                return true;
+            }
+            return false;
+        }, CharClass.of(String.valueOf(compareChar)));
+    }
+
+    /**
+     * Matches the whole string in one comparison and returns it as a single result. Fails, without consuming
+     * anything, if the input doesn't continue with the string
+     *
+     * @param text must not be empty
+     * @return
+     */
+    public static Parser literal(String text) {
+        if (text.isEmpty()) {
+            throw new IllegalArgumentException("Can't match an empty string");
+        }
+        return new Parser(Kind.STRING, text, NO_CHILDREN, input -> {
+            if (input.match(text)) {
+                List<String> results = new ArrayList<>();
+                results.add(text);
+                return Optional.of(results);
+            }
+            return Optional.empty();
+        }, (input, spans) -> {
+            int start = input.getIndex();
+            if (input.match(text)) {
+                spans.add(start, input.getIndex());
+                return true;
+            }
+            return false;
+        }, CharClass.of(text.substring(0, 1)));
     }
 
     /**
@@ -51,16 +226,129 @@ public class Parser {
      * @return
      */
     public static Parser or(Parser parser1, Parser parser2) {
-        return new Parser((input) -> {
-            Optional<List<String>> result1 = parser1.parse(input);
-            if (result1.isPresent()) {
-                return result1;
+        return or(parser1, parser2, new Parser[0]);
+    }
+
+    /**
+     * Tries each parser in order and returns the results of the first one that succeeds. Nested ors are flattened
+     * into one list of alternatives, and the next character is looked up in a dispatch table built from their FIRST
+     * sets so alternatives that can't match it are never run
+     *
+     * @param parser1
+     * @param parser2
+     * @param parsers
+     * @return
+     */
+    public static Parser or(Parser parser1, Parser parser2, Parser... parsers) {
+        List<Parser> flattened = new ArrayList<>();
+        flatten(parser1, flattened);
+        flatten(parser2, flattened);
+        for (Parser p : parsers) {
+            flatten(p, flattened);
+        }
+        Parser[] alternatives = flattened.toArray(new Parser[flattened.size()]);
+
+        CharClass[] firsts = new CharClass[alternatives.length];
+        CharClass first = CharClass.of("");
+        for (int i = 0; i < alternatives.length; i++) {
+            firsts[i] = alternatives[i].first;
+            first = first == null || firsts[i] == null ? null : first.union(firsts[i]);
+        }
+        return or(alternatives, new DispatchTable(firsts), first);
+    }
+
+    /**
+     * or over alternatives that are already flattened, with their dispatch table and FIRST set already worked out
+     */
+    static Parser or(Parser[] alternatives, DispatchTable dispatch, CharClass first) {
+        Function<ParserInput, Optional<List<String>>> function = input -> {
+            int position = input.getIndex();
+            int[] candidates = dispatch.candidates(input);
+            boolean exact = dispatch.isExact(candidates);
+            for (int i = 0; i < candidates.length; i++) {
+                int alternative = candidates[i];
+                if (!exact && !dispatch.isViable(alternative, input)) {
+                    continue;
+                }
+                Optional<List<String>> result = alternatives[alternative].apply(input);
+                if (result.isPresent()) {
+                    return result;
+                }
+                if (input.getIndex() != position) {
+                    //A failed alternative consumed input, so the lookahead the candidates came from is stale. Check
+                    //the rest one by one, which is what running the ors one after the other would have done
+                    for (int j = alternative + 1; j < alternatives.length; j++) {
+                        if (dispatch.isViable(j, input)) {
+                            result = alternatives[j].apply(input);
+                            if (result.isPresent()) {
+                                return result;
+                            }
+                        }
+                    }
+                    return Optional.empty();
+                }
+            }
+            return Optional.empty();
+        };
+        BiPredicate<ParserInput, SpanBuffer> spanFunction = (input, spans) -> {
+            //Failed alternatives never move the input in span mode, so the candidates stay valid
+            int[] candidates = dispatch.candidates(input);
+            boolean exact = dispatch.isExact(candidates);
+            for (int i = 0; i < candidates.length; i++) {
+                int alternative = candidates[i];
+                if ((exact || dispatch.isViable(alternative, input)) && alternatives[alternative].applySpans(input,
+                        spans)) {
+                    return true;
+                }
             }
+            return false;
+        };
 
-            //Logical Or optimization,
-            // a || b == if(a) { a } else { b }
-            return parser2.parse(input);
-        });
+        boolean mayCut = false;
+        for (Parser alternative : alternatives) {
+            mayCut |= alternative.mayCut;
+        }
+        if (!mayCut) {
+            return new Parser(Kind.OR, dispatch, alternatives, function, spanFunction, first);
+        }
+        //An alternative that fails after a commit fails the whole or, from wherever it was when it failed
+        return new Parser(Kind.OR, dispatch, alternatives, input -> {
+            int position = input.getIndex();
+            int mark = input.mark();
+            try {
+                Optional<List<String>> result = function.apply(input);
+                input.release(mark);
+                return result;
+            } catch (CutFailure e) {
+                input.setIndex(position);
+                input.release(mark);
+                return Optional.empty();
+            }
+        }, (input, spans) -> {
+            int position = input.getIndex();
+            int mark = input.mark();
+            int size = spans.size();
+            try {
+                boolean matched = spanFunction.test(input, spans);
+                input.release(mark);
+                return matched;
+            } catch (CutFailure e) {
+                input.setIndex(position);
+                input.release(mark);
+                spans.truncate(size);
+                return false;
+            }
+        }, first);
+    }
+
+    private static void flatten(Parser parser, List<Parser> flattened) {
+        if (parser.kind == Kind.OR) {
+            for (Parser alternative : parser.children) {
+                flattened.add(alternative);
+            }
+        } else {
+            flattened.add(parser);
+        }
     }
 
     /**
@@ -70,22 +358,43 @@ public class Parser {
      * @return
      */
     public static Parser merge(Parser parser) {
-        return new Parser((input) -> {
+        return new Parser(Kind.MERGE, null, new Parser[]{parser}, (input) -> {
             if (!input.hasNext()) {
                 return Optional.empty();
             }
             int position = input.getIndex();
+            int mark = input.mark();
 
-            Optional<List<String>> parserResult = parser.parse(input);
+            Optional<List<String>> parserResult = parser.apply(input);
             if (!parserResult.isPresent()) {
                 input.setIndex(position);
+                input.release(mark);
                 return Optional.empty();
             }
+            List<String> results = new ArrayList<>(1);
+            results.add(joined(parser, parserResult.get(), input, position));
+            input.release(mark);
+            return Optional.of(results);
+        }, (input, spans) -> {
+            if (!input.hasNext()) {
+                return false;
+            }
+            int position = input.getIndex();
+            int mark = input.mark();
+            int size = spans.size();
+
+            if (!parser.applySpans(input, spans)) {
+                input.setIndex(position);
+                input.release(mark);
+                spans.truncate(size);
+                return false;
+            }
+            input.release(mark);
 
-            Optional<List<String>> methodResult = Optional.of(new ArrayList<>());
-            methodResult.get().add(Utility.turnListToString(parserResult.get()).toString());
-            return methodResult;
-        });
+            spans.truncate(size);
+            spans.add(position, input.getIndex());
+            return true;
+        }, parser.first);
     }
 
     /**
@@ -97,35 +406,93 @@ public class Parser {
      * @return
      */
     public static Parser and(Parser parser, Parser... parsers) {
-        return new Parser((input) -> {
+        //Copied, so changing the array afterwards can't change the parser
+        Parser[] rest = parsers == null ? NO_CHILDREN : parsers.clone();
+        Parser[] children = new Parser[1 + rest.length];
+        children[0] = parser;
+        System.arraycopy(rest, 0, children, 1, rest.length);
+        //Once the first child that commits has succeeded, failing means failing the enclosing or too
+        int cutIndex = 0;
+        while (cutIndex < children.length && !children[cutIndex].cuts) {
+            cutIndex++;
+        }
+        int committed = cutIndex;
+        return new Parser(Kind.AND, null, children, (input) -> {
             if (!input.hasNext()) {
                 return Optional.empty();
             }
             int position = input.getIndex();
+            int mark = input.mark();
 
-            Optional<List<String>> result1 = parser.parse(input);
-            if (!result1.isPresent()) {
-                input.setIndex(position);
-                return Optional.empty();
+            List<String> results = new ArrayList<>(children.length);
+            for (int i = 0; i < children.length; i++) {
+                int start = input.getIndex();
+                Optional<List<String>> result = children[i].apply(input);
+                if (!result.isPresent()) {
+                    input.setIndex(position);
+                    input.release(mark);
+                    if (i > committed) {
+                        throw CutFailure.INSTANCE;
+                    }
+                    return Optional.empty();
+                }
+                if (children[i].kind != Kind.COMMIT) {
+                    results.add(joined(children[i], result.get(), input, start));
+                }
             }
+            input.release(mark);
 
-            List<String> results = new ArrayList<>();
-            results.add(Utility.turnListToString(result1.get()).toString());
+            return Optional.of(results);
+        }, (input, spans) -> {
+            if (!input.hasNext()) {
+                return false;
+            }
+            int position = input.getIndex();
+            int mark = input.mark();
+            int size = spans.size();
 
-            if (parsers != null) {
-                for (Parser p : parsers) {
-                    Optional<List<String>> result = p.parse(input);
-                    if (!result.isPresent()) {
-                        input.setIndex(position);
-                        return Optional.empty();
+            for (int i = 0; i < children.length; i++) {
+                if (!parseCollapsed(children[i], input, spans)) {
+                    input.setIndex(position);
+                    input.release(mark);
+                    spans.truncate(size);
+                    if (i > committed) {
+                        throw CutFailure.INSTANCE;
                     }
-                    ;
-                    results.add(Utility.turnListToString(result.get()).toString());
+                    return false;
                 }
             }
+            input.release(mark);
+            return true;
+        }, parser.first);
+    }
 
-            return Optional.of(results);
-        });
+    /**
+     * The results the parser just returned, joined into one. Usually that's the text it consumed, which can be
+     * sliced straight out of the input instead of being glued back together
+     */
+    private static String joined(Parser parser, List<String> results, ParserInput input, int start) {
+        if (parser.textual) {
+            return input.slice(start, input.getIndex()).toString();
+        }
+        return Utility.join(results);
+    }
+
+    /**
+     * Span mode helper for and. Runs the parser and replaces whatever spans it produced with the single span it
+     * consumed. Commits leave no span at all
+     */
+    private static boolean parseCollapsed(Parser parser, ParserInput input, SpanBuffer spans) {
+        int start = input.getIndex();
+        int size = spans.size();
+        if (!parser.applySpans(input, spans)) {
+            return false;
+        }
+        spans.truncate(size);
+        if (parser.kind != Kind.COMMIT) {
+            spans.add(start, input.getIndex());
+        }
+        return true;
     }
 
     /**
@@ -133,7 +500,7 @@ public class Parser {
      * @return
      */
     public static Parser any() {
-        return new Parser(input -> {
+        return new Parser(Kind.ANY, null, NO_CHILDREN, input -> {
             if (input.hasNext()) {
                 char inputChar = input.read();
                 input.advance();
@@ -143,7 +510,15 @@ public class Parser {
             } else {
                 return Optional.empty();
             }
-        });
+        }, (input, spans) -> {
+            if (input.hasNext()) {
+                int start = input.getIndex();
+                input.advance();
+                spans.add(start, input.getIndex());
+                return true;
+            }
+            return false;
+        }, CharClass.of("").negate());
     }
 
     /**
@@ -152,7 +527,7 @@ public class Parser {
      * @return
      */
     public static Parser anyExcept(char c) {
-        return new Parser((input -> {
+        return new Parser(Kind.ANY_EXCEPT, c, NO_CHILDREN, (input -> {
             if (input.hasNext()) {
                 char inputChar = input.read();
                 if (inputChar == c) {
@@ -165,7 +540,250 @@ public class Parser {
             } else {
                 return Optional.empty();
             }
-        }));
+        }), (input, spans) -> {
+            if (input.hasNext() && input.read() != c) {
+                int start = input.getIndex();
+                input.advance();
+                spans.add(start, input.getIndex());
+                return true;
+            }
+            return false;
+        }, CharClass.of(String.valueOf(c)).negate());
+    }
+
+    /**
+     * Matches a single character from the class
+     *
+     * @param chars
+     * @return
+     */
+    public static Parser charIn(CharClass chars) {
+        return new Parser(Kind.CHAR_IN, chars, NO_CHILDREN, input -> {
+            if (input.hasNext()) {
+                char inputChar = input.read();
+                if (chars.contains(inputChar)) {
+                    input.advance();
+                    List<String> result = new ArrayList<>();
+                    result.add(String.valueOf(inputChar));
+                    return Optional.of(result);
+                }
+            }
+            return Optional.empty();
+        }, (input, spans) -> {
+            if (input.hasNext() && chars.contains(input.read())) {
+                int start = input.getIndex();
+                input.advance();
+                spans.add(start, input.getIndex());
+                return true;
+            }
+            return false;
+        }, chars);
+    }
+
+    /**
+     * Matches a single character that is one of the given characters
+     *
+     * @param chars
+     * @return
+     */
+    public static Parser charIn(String chars) {
+        return charIn(CharClass.of(chars));
+    }
+
+    /**
+     * Matches a single character between first and last, inclusive
+     *
+     * @param first
+     * @param last
+     * @return
+     */
+    public static Parser range(char first, char last) {
+        return charIn(CharClass.range(first, last));
+    }
+
+    /**
+     * Matches a single character that is none of the given characters
+     *
+     * @param chars
+     * @return
+     */
+    public static Parser noneOf(String chars) {
+        return charIn(CharClass.of(chars).negate());
+    }
+
+    /**
+     * Consumes the longest run of characters in the class, in a single pass, and returns it as one result. Fails if
+     * the run is empty. Much cheaper than repeatUntil(charIn(chars)), which does a call and a list per character
+     *
+     * @param chars
+     * @return
+     */
+    public static Parser takeWhile(CharClass chars) {
+        return new Parser(Kind.TAKE_WHILE, chars, NO_CHILDREN, input -> {
+            int start = input.getIndex();
+            int mark = input.mark();
+            if (input.advanceWhile(chars) == 0) {
+                input.release(mark);
+                return Optional.empty();
+            }
+            return Optional.of(sliceSince(input, start, mark));
+        }, (input, spans) -> {
+            int start = input.getIndex();
+            if (input.advanceWhile(chars) == 0) {
+                return false;
+            }
+            spans.add(start, input.getIndex());
+            return true;
+        }, chars);
+    }
+
+    /**
+     * Consumes characters up to the first one in the class (or the end of input) and returns them as one result.
+     * Never fails, the result is empty if the next character is already in the class
+     *
+     * @param chars
+     * @return
+     */
+    public static Parser skipUntil(CharClass chars) {
+        CharClass others = chars.negate();
+        return new Parser(Kind.SKIP_UNTIL, chars, NO_CHILDREN, input -> {
+            int start = input.getIndex();
+            int mark = input.mark();
+            input.advanceWhile(others);
+            return Optional.of(sliceSince(input, start, mark));
+        }, (input, spans) -> {
+            int start = input.getIndex();
+            input.advanceWhile(others);
+            spans.add(start, input.getIndex());
+            return true;
+        }, null);
+    }
+
+    /**
+     * Consumes at least one character, up to the next delimiter or the end, and returns them as one result. Fails if
+     * the next character is already a delimiter. The same as takeWhile(noneOf(delimiters)), but the input gets to
+     * search for the delimiters however is fastest for it, e.g. indexOf for a single one. compile() turns
+     * repeatUntil(anyExcept(c)) and takeWhile over a few excluded chars into this
+     *
+     * @param delimiters
+     * @return
+     */
+    public static Parser scanUntilAny(char... delimiters) {
+        if (delimiters.length == 0) {
+            throw new IllegalArgumentException("Need at least one delimiter");
+        }
+        return scanUntil(delimiters.clone());
+    }
+
+    private static Parser scanUntil(char[] delimiters) {
+        return new Parser(Kind.SCAN_UNTIL, delimiters, NO_CHILDREN, input -> {
+            int start = input.getIndex();
+            int mark = input.mark();
+            if (input.advanceUntilAny(delimiters) == 0) {
+                input.release(mark);
+                return Optional.empty();
+            }
+            return Optional.of(sliceSince(input, start, mark));
+        }, (input, spans) -> {
+            int start = input.getIndex();
+            if (input.advanceUntilAny(delimiters) == 0) {
+                return false;
+            }
+            spans.add(start, input.getIndex());
+            return true;
+        }, CharClass.of(new String(delimiters)).negate());
+    }
+
+    /**
+     * The text from start to the index as one result, then release the mark that kept it from being discarded while
+     * the scan read ahead
+     */
+    private static List<String> sliceSince(ParserInput input, int start, int mark) {
+        List<String> result = new ArrayList<>();
+        result.add(input.slice(start, input.getIndex()).toString());
+        input.release(mark);
+        return result;
+    }
+
+    /**
+     * Matches the pattern at the current position and returns what it matched as one result. For tokens like URLs,
+     * dates and entities that take a lot of combinators to spell out. The pattern is anchored at the position, as if
+     * by lookingAt, and it may match nothing. Each thread reuses its own Matcher, so no Matcher is built per call.
+     * Inputs that can't be seen as a CharSequence, like streams and UTF-8 bytes, are copied a chunk at a time until
+     * the match is decided
+     *
+     * @param pattern
+     * @return
+     */
+    public static Parser regex(Pattern pattern) {
+        ThreadLocal<Matcher> matchers = ThreadLocal.withInitial(() -> pattern.matcher(""));
+        return new Parser(Kind.REGEX, pattern, NO_CHILDREN, input -> {
+            int start = input.getIndex();
+            if (!lookingAt(matchers.get(), input)) {
+                return Optional.empty();
+            }
+            List<String> result = new ArrayList<>();
+            result.add(input.slice(start, input.getIndex()).toString());
+            return Optional.of(result);
+        }, (input, spans) -> {
+            int start = input.getIndex();
+            if (!lookingAt(matchers.get(), input)) {
+                return false;
+            }
+            spans.add(start, input.getIndex());
+            return true;
+        }, null);
+    }
+
+    /**
+     * Run the matcher at the index and advance past the match. Leaves the index alone if it doesn't match
+     */
+    private static boolean lookingAt(Matcher matcher, ParserInput input) {
+        CharSequence text = input.asCharSequence();
+        if (text == null) {
+            return lookingAtCopy(matcher, input);
+        }
+        matcher.reset(text).region(input.getIndex(), text.length());
+        boolean found = matcher.lookingAt();
+        if (found) {
+            input.setIndex(matcher.end());
+        }
+        //So the thread's matcher doesn't keep the text alive
+        matcher.reset("");
+        return found;
+    }
+
+    /**
+     * lookingAt for inputs whose indexes aren't char positions. Copies from the index in growing chunks, until the
+     * matcher decides without running into the end of the copy
+     */
+    private static boolean lookingAtCopy(Matcher matcher, ParserInput input) {
+        int start = input.getIndex();
+        int mark = input.mark();
+        StringBuilder text = new StringBuilder();
+        int chunk = 64;
+        boolean found;
+        while (true) {
+            while (text.length() < chunk && input.hasNext()) {
+                text.append(input.read());
+                input.advance();
+            }
+            matcher.reset(text);
+            found = matcher.lookingAt();
+            if (!matcher.hitEnd() || !input.hasNext()) {
+                break;
+            }
+            chunk *= 2;
+        }
+        int length = found ? matcher.end() : 0;
+        matcher.reset("");
+
+        input.setIndex(start);
+        for (int i = 0; i < length; i++) {
+            input.advance();
+        }
+        input.release(mark);
+        return found;
     }
 
   /*
@@ -180,12 +798,12 @@ public class Parser {
             throw new IndexOutOfBoundsException("N must be less");
         }
 
-        return new Parser(input -> {
+        return new Parser(Kind.REPEAT, N, new Parser[]{parser}, input -> {
             Optional<List<String>> output = Optional.of(new ArrayList<>());
             Optional<List<String>> parserOutput;
 
             for (int i = 0; i < N; i++) {
-                parserOutput = parser.parse(input);
+                parserOutput = parser.apply(input);
                 if (!parserOutput.isPresent()) {
                     output = Optional.empty();
                     break;
@@ -193,7 +811,21 @@ public class Parser {
                 output.get().addAll(parserOutput.get());
             }
             return output;
-        });
+        }, (input, spans) -> {
+            int position = input.getIndex();
+            int mark = input.mark();
+            int size = spans.size();
+            for (int i = 0; i < N; i++) {
+                if (!parser.applySpans(input, spans)) {
+                    input.setIndex(position);
+                    input.release(mark);
+                    spans.truncate(size);
+                    return false;
+                }
+            }
+            input.release(mark);
+            return true;
+        }, N > 0 ? parser.first : null);
     }
 
     /**
@@ -203,39 +835,415 @@ public class Parser {
      * @return
      */
     public static Parser repeatUntil(Parser parser) {
-        return new Parser(input -> {
+        return new Parser(Kind.REPEAT_UNTIL, null, new Parser[]{parser}, input -> {
             Optional<List<String>> output = Optional.of(new ArrayList<>());
-            Optional<List<String>> parserOutput = parser.parse(input);
+            Optional<List<String>> parserOutput = parser.apply(input);
             while (parserOutput.isPresent()) {
                 output.get().addAll(parserOutput.get());
-                parserOutput = parser.parse(input);
+                parserOutput = parser.apply(input);
             }
             if (output.get().size() == 0) {
                 return Optional.empty();
             }
             return output;
-        });
+        }, (input, spans) -> {
+            int size = spans.size();
+            while (parser.applySpans(input, spans)) {
+                // keep going
+            }
+            return spans.size() > size;
+        }, parser.first);
+    }
+
+    /**
+     * Remembers what the parser did at each position, so backtracking into the same spot doesn't run it again. This
+     * makes grammars that keep retrying the same alternatives linear time, at the cost of a table entry per position.
+     * The table only lives as long as one parse
+     *
+     * @param parser
+     * @return
+     */
+    public static Parser memo(Parser parser) {
+        int id = memoIds.getAndIncrement();
+        return new Parser(Kind.MEMO, id, new Parser[]{parser}, input -> {
+            int position = input.getIndex();
+            MemoTable memo = input.getState().getMemoTable();
+            int entry = memo.findList(id, position);
+            if (entry >= 0) {
+                input.setIndex(memo.end(entry));
+                return memo.matched(entry) ? Optional.of(memo.list(entry)) : Optional.empty();
+            }
+
+            Optional<List<String>> result = parser.apply(input);
+            memo.putList(id, position, input.getIndex(), result.orElse(null));
+            return result;
+        }, (input, spans) -> {
+            int position = input.getIndex();
+            MemoTable memo = input.getState().getMemoTable();
+            int entry = memo.findSpans(id, position);
+            if (entry >= 0) {
+                if (!memo.matched(entry)) {
+                    return false;
+                }
+                memo.copySpans(entry, spans);
+                input.setIndex(memo.end(entry));
+                return true;
+            }
+
+            int size = spans.size();
+            boolean matched = parser.applySpans(input, spans);
+            memo.putSpans(id, position, input.getIndex(), matched, spans, size);
+            return matched;
+        }, parser.first);
+    }
+
+    /**
+     * Matches nothing and always succeeds, but commits the and it is in: if anything after it in the and fails, the
+     * nearest enclosing or fails straight away instead of rewinding and trying its other alternatives. Use it once
+     * the input can't be anything else, like after the opening of a construct, so malformed input is reported
+     * instead of retried. A commit that isn't inside an or fails the whole parse. Outside of an and it does nothing
+     *
+     * @return
+     */
+    public static Parser commit() {
+        return new Parser(Kind.COMMIT, null, NO_CHILDREN, input -> Optional.of(new ArrayList<>()),
+                (input, spans) -> true, null);
     }
 
     public static Parser fail() {
-        return new Parser(parserInput -> {
+        return new Parser(Kind.FAIL, null, NO_CHILDREN, parserInput -> {
            return Optional.empty();
-        });
+        }, (parserInput, spans) -> false, CharClass.of(""));
+    }
+
+    /**
+     * Every character this parser can start with, if that's known. Empty when the parser could succeed without
+     * reading anything, or when it depends on something that can't be analyzed
+     *
+     * @return
+     */
+    public Optional<CharClass> firstSet() {
+        return Optional.ofNullable(first);
     }
 
     public Parser chain(Function<List<String>, Parser> function) {
         Parser that = this;
-        return new Parser(parserInput -> {
-           Optional<List<String>> result = that.parse(parserInput);
-            System.out.println(result);
+        return new Parser(Kind.CHAIN, function, new Parser[]{this}, parserInput -> {
+           Optional<List<String>> result = that.apply(parserInput);
             if(result.isPresent()) {
                 Parser parser = function.apply(result.get());
-                return parser.parse(parserInput);
+                return parser.apply(parserInput);
             } else {
               return Optional.empty();
             }
-        });
+        }, (parserInput, spans) -> {
+            int position = parserInput.getIndex();
+            int mark = parserInput.mark();
+            int size = spans.size();
+            if (!that.applySpans(parserInput, spans)) {
+                parserInput.release(mark);
+                return false;
+            }
+
+            //The function only understands strings, so this is the one place span mode has to build them
+            List<String> result = new ArrayList<>(spans.size() - size);
+            for (int i = size; i < spans.size(); i++) {
+                result.add(parserInput.slice(spans.start(i), spans.end(i)).toString());
+            }
+            spans.truncate(size);
+
+            if (function.apply(result).applySpans(parserInput, spans)) {
+                parserInput.release(mark);
+                return true;
+            }
+            parserInput.setIndex(position);
+            parserInput.release(mark);
+            return false;
+        }, that.first);
+    }
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * The parsers this one is built from. For an or, the alternatives in the order they are tried
+     *
+     * @return
+     */
+    public List<Parser> getChildren() {
+        return Arrays.asList(children.clone());
+    }
+
+    Object getArgument() {
+        return argument;
+    }
+
+    /**
+     * The children without a copy, for the interpreter. Never modify it
+     */
+    Parser[] children() {
+        return children;
+    }
+
+    boolean cuts() {
+        return cuts;
+    }
+
+    boolean mayCut() {
+        return mayCut;
+    }
+
+    boolean catchesCuts() {
+        return catchesCuts;
+    }
+
+    /**
+     * Build an equivalent parser with the grammar simplified. Sequences of literals become a single string
+     * comparison, repeatUntil(anyExcept(c)) becomes a search for c, and merges that wouldn't change anything are
+     * dropped. Rewrites that change how results are split up are only done where the split gets thrown away anyway,
+     * like inside a merge or an and, so the compiled parser returns exactly what this one does. Parsers returned by
+     * chain functions aren't compiled
+     *
+     * @return
+     */
+    public Parser compile() {
+        return compile(this, false, new IdentityHashMap<>(), new IdentityHashMap<>());
     }
+
+    /**
+     * @param collapsed whether the parent concatenates this parser's results into one, so the way they are split
+     *                  doesn't matter
+     */
+    private static Parser compile(Parser parser, boolean collapsed, Map<Parser, Parser> compiled,
+                                  Map<Parser, Parser> compiledCollapsed) {
+        //Parsers can be shared, and shared memos have to stay shared
+        Map<Parser, Parser> cache = collapsed ? compiledCollapsed : compiled;
+        Parser result = cache.get(parser);
+        if (result == null) {
+            result = rewrite(parser, collapsed, compiled, compiledCollapsed);
+            cache.put(parser, result);
+        }
+        return result;
+    }
+
+    private static Parser rewrite(Parser parser, boolean collapsed, Map<Parser, Parser> compiled,
+                                  Map<Parser, Parser> compiledCollapsed) {
+        Parser[] children = new Parser[parser.children.length];
+        for (int i = 0; i < children.length; i++) {
+            //and and merge concatenate whatever each child returns. Everything else passes results through
+            boolean childCollapsed = parser.kind == Kind.AND || parser.kind == Kind.MERGE
+                    || (collapsed && parser.kind != Kind.CHAIN);
+            children[i] = compile(parser.children[i], childCollapsed, compiled, compiledCollapsed);
+        }
+
+        switch (parser.kind) {
+            case AND:
+                if (collapsed && allLiterals(children)) {
+                    StringBuilder text = new StringBuilder();
+                    for (Parser child : children) {
+                        text.append(child.argument);
+                    }
+                    return literal(text.toString());
+                }
+                if (children.length == 1) {
+                    //and with one parser is a merge: both need input and both join the results into one
+                    return unwrapMerge(children[0], collapsed);
+                }
+                return rebuild(parser, children);
+            case MERGE:
+                return unwrapMerge(children[0], collapsed);
+            case REPEAT_UNTIL:
+                if (collapsed && children[0].kind == Kind.ANY_EXCEPT) {
+                    return scanUntil(new char[]{(Character) children[0].argument});
+                }
+                if (collapsed && children[0].kind == Kind.CHAR_IN) {
+                    return scanIfFew((CharClass) children[0].argument);
+                }
+                return rebuild(parser, children);
+            case TAKE_WHILE:
+                return scanIfFew((CharClass) parser.argument);
+            default:
+                return rebuild(parser, children);
+        }
+    }
+
+    /**
+     * A merge of child. Where the parent joins the results anyway the merge can go, but only if the child rewinds on
+     * failure like the merge does, an or after it would otherwise carry on from the wrong place
+     */
+    private static Parser unwrapMerge(Parser child, boolean collapsed) {
+        return collapsed && child.first != null && child.rewinds ? child : simplifyMerge(child);
+    }
+
+    /**
+     * takeWhile over the class, or a search for the excluded chars when the class is everything but a few
+     */
+    private static Parser scanIfFew(CharClass chars) {
+        char[] delimiters = chars.excluded(MAX_SCAN_DELIMITERS);
+        return delimiters != null && delimiters.length > 0 ? scanUntil(delimiters) : takeWhile(chars);
+    }
+
+    /**
+     * The same combinator as parser, over new children
+     */
+    private static Parser rebuild(Parser parser, Parser[] children) {
+        switch (parser.kind) {
+            case OR:
+                return or(children[0], children[1], Arrays.copyOfRange(children, 2, children.length));
+            case AND:
+                return and(children[0], Arrays.copyOfRange(children, 1, children.length));
+            case MERGE:
+                return merge(children[0]);
+            case REPEAT:
+                return repeat(children[0], (Integer) parser.argument);
+            case REPEAT_UNTIL:
+                return repeatUntil(children[0]);
+            case MEMO:
+                return memo(children[0]);
+            case CHAIN:
+                @SuppressWarnings("unchecked")
+                Function<List<String>, Parser> function = (Function<List<String>, Parser>) parser.argument;
+                return children[0].chain(function);
+            default:
+                return parser;
+        }
+    }
+
+    /**
+     * Build an equivalent parser that reports to the listener as it runs: every parse, every node entered and
+     * exited, and every time the input is rewound. This parser is left alone, so there is no cost to parsers that
+     * aren't traced. Trace after compiling, since compile rebuilds the grammar without the listener. Parsers returned
+     * by chain functions aren't traced
+     *
+     * @param listener
+     * @return
+     */
+    public Parser traced(ParseListener listener) {
+        Parser root = trace(this, listener, new IdentityHashMap<>());
+        return new Parser(root.kind, root.argument, root.children, root.function, root.spanFunction, root.first,
+                listener);
+    }
+
+    private static Parser trace(Parser parser, ParseListener listener, Map<Parser, Parser> traced) {
+        Parser result = traced.get(parser);
+        if (result != null) {
+            return result;
+        }
+        Parser[] children = new Parser[parser.children.length];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = trace(parser.children[i], listener, traced);
+        }
+        Parser rebuilt = rebuild(parser, children);
+        //A node left by a cut, or anything else thrown, still exits, as a failure
+        result = new Parser(parser.kind, parser.argument, rebuilt.children, input -> {
+            int start = input.getIndex();
+            listener.onEnter(parser, start);
+            Optional<List<String>> parsed = Optional.empty();
+            try {
+                parsed = rebuilt.apply(input);
+                return parsed;
+            } finally {
+                listener.onExit(parser, start, input.getIndex(), parsed.isPresent());
+            }
+        }, (input, spans) -> {
+            int start = input.getIndex();
+            listener.onEnter(parser, start);
+            boolean matched = false;
+            try {
+                matched = rebuilt.applySpans(input, spans);
+                return matched;
+            } finally {
+                listener.onExit(parser, start, input.getIndex(), matched);
+            }
+        }, parser.first);
+        traced.put(parser, result);
+        return result;
+    }
+
+    private static boolean allLiterals(Parser[] parsers) {
+        for (Parser parser : parsers) {
+            if (parser.kind != Kind.LITERAL && parser.kind != Kind.STRING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * merge(parser), unless the merge wouldn't change anything
+     */
+    private static Parser simplifyMerge(Parser parser) {
+        switch (parser.kind) {
+            case MERGE:
+            case LITERAL:
+            case STRING:
+            case ANY:
+            case ANY_EXCEPT:
+            case CHAR_IN:
+            case TAKE_WHILE:
+            case SCAN_UNTIL:
+                //Already one result, and already fails at the end of the input
+                return parser;
+            default:
+                return merge(parser);
+        }
+    }
+
+    /**
+     * The grammar this parser was built from
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        describe(builder);
+        return builder.toString();
+    }
+
+    private void describe(StringBuilder builder) {
+        switch (kind) {
+            case LITERAL:
+            case ANY_EXCEPT:
+                builder.append(kind == Kind.LITERAL ? "literal('" : "anyExcept('").append(argument).append("')");
+                return;
+            case STRING:
+                builder.append("literal(\"").append(argument).append("\")");
+                return;
+            case SCAN_UNTIL:
+                builder.append("scanUntilAny(\"").append((char[]) argument).append("\")");
+                return;
+            case REGEX:
+                builder.append("regex(\"").append(argument).append("\")");
+                return;
+            case CHAR_IN:
+            case TAKE_WHILE:
+            case SKIP_UNTIL:
+                builder.append(kind == Kind.CHAR_IN ? "charIn" : kind == Kind.TAKE_WHILE ? "takeWhile" : "skipUntil")
+                        .append("(").append(argument).append(")");
+                return;
+            default:
+                break;
+        }
+        String name = kind.name().toLowerCase();
+        int underscore = name.indexOf('_');
+        if (underscore >= 0) {
+            name = name.substring(0, underscore) + Character.toUpperCase(name.charAt(underscore + 1))
+                    + name.substring(underscore + 2);
+        }
+        builder.append(name).append("(");
+        for (int i = 0; i < children.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            children[i].describe(builder);
+        }
+        if (kind == Kind.REPEAT) {
+            builder.append(", ").append(argument);
+        }
+        builder.append(")");
+    }
+
     /**
      * Take the string, and parse it with the defined rule(s)
      *
@@ -244,13 +1252,207 @@ public class Parser {
      */
     public ParserResult parse(String input) {
         ParserInput parserInput = new StringInput(input);
-        Optional<List<String>> result = this.function.apply(parserInput);
-        return new ParserResult(result, parserInput);
+        return parse(parserInput);
+    }
+
+    /**
+     * Parse a stream of characters, keeping only as much of it in memory as the grammar can still rewind to. The
+     * reader is not closed
+     *
+     * @param reader
+     * @return
+     */
+    public ParserResult parse(Reader reader) {
+        ParserInput parserInput = new ReaderInput(reader);
+        return parse(parserInput);
     }
 
-    private Optional<List<String>> parse(ParserInput input) {
+    /**
+     * Parse a UTF-8 file without reading it onto the heap. The file is memory mapped and decoded as the parser goes,
+     * so indexes in the result are byte offsets
+     *
+     * @param path
+     * @return
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public ParserResult parse(Path path) throws IOException {
+        ParserInput parserInput = new MappedFileInput(path);
+        return parse(parserInput);
+    }
+
+    /**
+     * Parse the string in span mode. Results are reported as offsets into the input and no strings are built unless
+     * you ask the {@link SpanResult} for them. and and merge report the whole region they consumed as one span
+     *
+     * @param input
+     * @return
+     */
+    public SpanResult parseSpans(String input) {
+        return parseSpans(input, new SpanBuffer());
+    }
+
+    /**
+     * Same as {@link #parseSpans(String)}, but reuses the given buffer. The buffer is cleared first, and belongs to
+     * the returned result until you reuse it again
+     *
+     * @param input
+     * @param buffer
+     * @return
+     */
+    public SpanResult parseSpans(String input, SpanBuffer buffer) {
+        ParserInput parserInput = new StringInput(input);
+        return parseSpans(parserInput, buffer);
+    }
+
+    /**
+     * Span mode version of {@link #parse(Path)}. This is the one to use for big files, since nothing is copied out of
+     * the map until you ask for it
+     *
+     * @param path
+     * @param buffer
+     * @return
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public SpanResult parseSpans(Path path, SpanBuffer buffer) throws IOException {
+        ParserInput parserInput = new MappedFileInput(path);
+        return parseSpans(parserInput, buffer);
+    }
+
+    /**
+     * Parse any kind of input
+     *
+     * @param input
+     * @return
+     */
+    public ParserResult parse(ParserInput input) {
+        if (listener != null) {
+            return parseTraced(new ListeningInput(input, listener));
+        }
+        Optional<List<String>> result = applyRoot(input);
+        input.getState().reset();
+        return new ParserResult(result, input);
+    }
+
+    /**
+     * Parse any kind of input in span mode, reusing the given buffer
+     *
+     * @param input
+     * @param buffer
+     * @return
+     */
+    public SpanResult parseSpans(ParserInput input, SpanBuffer buffer) {
+        return new SpanResult(runSpans(input, buffer), buffer, input);
+    }
+
+    /**
+     * parseSpans without building a result, for callers that keep their own
+     *
+     * @return whether the parser matched
+     */
+    boolean runSpans(ParserInput input, SpanBuffer buffer) {
+        if (listener != null) {
+            return parseSpansTraced(new ListeningInput(input, listener), buffer);
+        }
+        buffer.clear();
+        boolean matched = applySpansRoot(input, buffer);
+        input.getState().reset();
+        return matched;
+    }
+
+    /**
+     * Parse in span mode like {@link #parseSpans(String)}, but on a stack kept on the heap instead of through nested
+     * calls. No grammar is too deep for it, however far chain recurses or however many combinators are nested, and
+     * the results are the same as parseSpans. Listeners of a traced parser only hear from its leaves
+     *
+     * @param input
+     * @return
+     */
+    public SpanResult interpret(String input) {
+        return interpret(new StringInput(input), new SpanBuffer());
+    }
+
+    /**
+     * {@link #interpret(String)} for any kind of input, reusing the given buffer
+     *
+     * @param input
+     * @param buffer
+     * @return
+     */
+    public SpanResult interpret(ParserInput input, SpanBuffer buffer) {
+        buffer.clear();
+        boolean matched = input.getState().getInterpreter().run(this, input, buffer);
+        input.getState().reset();
+        return new SpanResult(matched, buffer, input);
+    }
+
+    private ParserResult parseTraced(ParserInput input) {
+        int start = input.getIndex();
+        listener.onParseStart(this);
+        long startTime = System.nanoTime();
+        Optional<List<String>> result = applyRoot(input);
+        long nanos = System.nanoTime() - startTime;
+        input.getState().reset();
+        listener.onParseEnd(this, result.isPresent(), input.getIndex() - start, nanos);
+        return new ParserResult(result, input);
+    }
+
+    private boolean parseSpansTraced(ParserInput input, SpanBuffer buffer) {
+        buffer.clear();
+        int start = input.getIndex();
+        listener.onParseStart(this);
+        long startTime = System.nanoTime();
+        boolean matched = applySpansRoot(input, buffer);
+        long nanos = System.nanoTime() - startTime;
+        input.getState().reset();
+        listener.onParseEnd(this, matched, input.getIndex() - start, nanos);
+        return matched;
+    }
+
+    /**
+     * apply, for the start of a parse. A commit with no or around it fails the whole parse
+     */
+    Optional<List<String>> applyRoot(ParserInput input) {
+        if (!mayCut) {
+            return apply(input);
+        }
+        int position = input.getIndex();
+        int mark = input.mark();
+        try {
+            Optional<List<String>> result = apply(input);
+            input.release(mark);
+            return result;
+        } catch (CutFailure e) {
+            input.setIndex(position);
+            input.release(mark);
+            return Optional.empty();
+        }
+    }
+
+    boolean applySpansRoot(ParserInput input, SpanBuffer spans) {
+        if (!mayCut) {
+            return applySpans(input, spans);
+        }
+        int position = input.getIndex();
+        int mark = input.mark();
+        try {
+            boolean matched = applySpans(input, spans);
+            input.release(mark);
+            return matched;
+        } catch (CutFailure e) {
+            input.setIndex(position);
+            input.release(mark);
+            spans.clear();
+            return false;
+        }
+    }
+
+    private Optional<List<String>> apply(ParserInput input) {
         return function.apply(input);
     }
+
+    boolean applySpans(ParserInput input, SpanBuffer spans) {
+        return spanFunction.test(input, spans);
+    }
 }
 
 //TODO check out https://github.com/jneen/parsimmon for a refrence implementation
\ No newline at end of file
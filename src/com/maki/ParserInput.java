@@ -14,7 +14,110 @@ public interface ParserInput {
 
     int getIndex();
 
+    /**
+     * Tell the input that the current index may be rewound to later. Inputs that don't keep everything in memory use
+     * this to know what they can throw away
+     *
+     * @return a token to hand back to release
+     */
+    default int mark() {
+        return 0;
+    }
+
+    /**
+     * Give up a mark, and every mark made after it
+     *
+     * @param mark
+     */
+    default void release(int mark) {
+    }
+
     boolean hasNext();
 
     Optional<?> rest();
+
+    /**
+     * The text between two indexes previously returned by getIndex
+     *
+     * @param start
+     * @param end
+     * @return
+     */
+    CharSequence slice(int start, int end);
+
+    /**
+     * Advance past every char in the class, stopping at the first one that isn't (or the end). Inputs should override
+     * this with a tighter loop than read and advance
+     *
+     * @param chars
+     * @return how many chars were skipped
+     */
+    default int advanceWhile(CharClass chars) {
+        int count = 0;
+        while (hasNext() && chars.contains(read())) {
+            advance();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Advance up to the next delimiter, or the end. Inputs should override this with whatever search is fastest for
+     * them
+     *
+     * @param delimiters
+     * @return how many chars were skipped
+     */
+    default int advanceUntilAny(char[] delimiters) {
+        int count = 0;
+        while (hasNext()) {
+            char inputChar = read();
+            for (char delimiter : delimiters) {
+                if (inputChar == delimiter) {
+                    return count;
+                }
+            }
+            advance();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * If the input continues with the text, advance past it. Otherwise leave the index where it is
+     *
+     * @param text
+     * @return whether the text matched
+     */
+    default boolean match(String text) {
+        int start = getIndex();
+        int mark = mark();
+        for (int i = 0; i < text.length(); i++) {
+            if (!hasNext() || read() != text.charAt(i)) {
+                setIndex(start);
+                release(mark);
+                return false;
+            }
+            advance();
+        }
+        release(mark);
+        return true;
+    }
+
+    /**
+     * The input as a CharSequence whose positions are the same as getIndex's, ending where the input ends, so things
+     * like regexes can run straight on the text. Nothing is copied
+     *
+     * @return the text, or null if the input isn't text underneath, like a stream, or indexes aren't char positions
+     */
+    default CharSequence asCharSequence() {
+        return null;
+    }
+
+    /**
+     * Scratch state for the parse that is reading this input
+     *
+     * @return
+     */
+    ParseState getState();
 }
@@ -0,0 +1,191 @@
+package com.maki;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Parses a document as a run of items, like repeatUntil(item), from chunks of text pushed in as they arrive instead of
+ * a whole input pulled from. Nothing blocks: feed parses what it can and returns.
+ *
+ * An item is handed to the consumer as soon as more text can't change it, which is when the parser never looked past
+ * the text that has arrived. An item that still could change is parsed again once more text is in, and only the text
+ * of items not yet handed over is kept. Long items are retried each time their text doubles rather than on every
+ * chunk, so the work stays linear in the length of the document.
+ *
+ * Like the incremental parser, an item that fails or consumes nothing ends the document. The text that had arrived
+ * by then is kept as the rest, and anything fed after it is dropped unread. Not thread safe, one push parser is one
+ * document.
+ */
+public class PushParser {
+    //Pending text shorter than this is retried on every chunk, longer text only once it has doubled
+    private static final int RETRY_EVERY_CHUNK = 4096;
+
+    private final Parser item;
+
+    private final Consumer<List<String>> consumer;
+
+    //Text that arrived but isn't part of an item handed over yet
+    private final StringBuilder pending = new StringBuilder();
+
+    //How much of the document has been handed over and dropped from pending
+    private int offset = 0;
+
+    //Pending length at which the next feed parses again
+    private int retryAt = 0;
+
+    private boolean stopped = false;
+    private boolean finished = false;
+
+    //Bytes are decoded as they come, a sequence split between chunks waits here for the rest of it
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer undecoded = ByteBuffer.allocate(0);
+    private final CharBuffer decoded = CharBuffer.allocate(8192);
+
+    /**
+     * @param item     parses one item of the document
+     * @param consumer gets every item, in order, as soon as it's final
+     */
+    public PushParser(Parser item, Consumer<List<String>> consumer) {
+        this.item = item;
+        this.consumer = consumer;
+    }
+
+    /**
+     * Push the next chunk of text
+     *
+     * @param chars a CharBuffer is read from its position to its limit, and isn't moved
+     * @return how many items were handed over
+     */
+    public int feed(CharSequence chars) {
+        checkOpen();
+        if (stopped) {
+            return 0;
+        }
+        if (undecoded.hasRemaining()) {
+            throw new IllegalStateException("Can't feed chars in the middle of a UTF-8 sequence");
+        }
+        pending.append(chars);
+        return drain(false);
+    }
+
+    /**
+     * Push the next chunk of UTF-8. A sequence split across chunks is decoded once the rest of it arrives, and
+     * malformed bytes read as U+FFFD
+     *
+     * @param bytes read from its position to its limit, and left at its limit
+     * @return how many items were handed over
+     */
+    public int feed(ByteBuffer bytes) {
+        checkOpen();
+        if (stopped) {
+            bytes.position(bytes.limit());
+            return 0;
+        }
+        decode(bytes, false);
+        return drain(false);
+    }
+
+    /**
+     * Say there is no more text, and hand over whatever items are left
+     *
+     * @return how many items were handed over
+     */
+    public int finish() {
+        checkOpen();
+        decode(ByteBuffer.allocate(0), true);
+        finished = true;
+        return drain(true);
+    }
+
+    /**
+     * @return whether an item failed, so the rest of the document won't be parsed and more input is dropped
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * The text after the last item handed over. Once stopped, that's where the document stopped parsing, up to the
+     * last chunk before it stopped
+     *
+     * @return
+     */
+    public String getRest() {
+        return pending.toString();
+    }
+
+    /**
+     * @return where the rest starts in the document, in chars
+     */
+    public int getRestStart() {
+        return offset;
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("Already finished");
+        }
+    }
+
+    private void decode(ByteBuffer bytes, boolean endOfInput) {
+        if (undecoded.remaining() > 0 || !endOfInput) {
+            ByteBuffer joined = ByteBuffer.allocate(undecoded.remaining() + bytes.remaining());
+            joined.put(undecoded).put(bytes).flip();
+            undecoded = joined;
+        }
+        while (true) {
+            decoded.clear();
+            boolean full = decoder.decode(undecoded, decoded, endOfInput).isOverflow();
+            if (endOfInput && !full) {
+                full = decoder.flush(decoded).isOverflow();
+            }
+            decoded.flip();
+            pending.append(decoded);
+            if (!full) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hand over every item that is final
+     */
+    private int drain(boolean atEnd) {
+        if (stopped || (!atEnd && pending.length() < retryAt)) {
+            return 0;
+        }
+        String text = pending.toString();
+        ExtentInput input = new ExtentInput(new StringInput(text));
+        int position = 0;
+        int handed = 0;
+        while (true) {
+            input.setIndex(position);
+            input.resetExtent();
+            Optional<List<String>> result = item.parse(input).getParsed();
+            int end = input.getIndex();
+            if (!atEnd && input.getExtent() > text.length()) {
+                //It looked past what has arrived, so more text could change it
+                retryAt = text.length() - position < RETRY_EVERY_CHUNK ? 0 : (text.length() - position) * 2;
+                break;
+            }
+            if (!result.isPresent() || end == position) {
+                stopped = true;
+                break;
+            }
+            consumer.accept(result.get());
+            handed++;
+            position = end;
+        }
+        pending.delete(0, position);
+        offset += position;
+        return handed;
+    }
+}
@@ -0,0 +1,171 @@
+package com.maki;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Pulls characters from a Reader into a sliding window. Everything before the oldest outstanding mark (or the index,
+ * if nothing is marked) is thrown away the next time the window fills up, so memory stays bounded by how far the
+ * grammar can backtrack rather than by the size of the input. Rewinding into the part that was thrown away is an
+ * error.
+ */
+public class ReaderInput implements ParserInput {
+    private Reader reader;
+
+    private char[] window;
+    //The index of window[0]
+    private int windowStart = 0;
+    private int filled = 0;
+    private boolean eof = false;
+
+    private int index = 0;
+
+    private int[] marks = new int[16];
+    private int markCount = 0;
+
+    private ParseState state = new ParseState();
+
+    public ReaderInput(Reader reader) {
+        this(reader, 8192);
+    }
+
+    /**
+     * @param reader
+     * @param windowSize how many chars to read at a time. The window grows if the grammar holds on to more than this
+     */
+    public ReaderInput(Reader reader, int windowSize) {
+        this.reader = reader;
+        this.window = new char[Math.max(windowSize, 1)];
+    }
+
+    @Override
+    public char read() {
+        if (!hasNext()) {
+            throw new IndexOutOfBoundsException("Read past the end of the input at " + index);
+        }
+        return window[index - windowStart];
+    }
+
+    @Override
+    public void advance() {
+        index += 1;
+    }
+
+    @Override
+    public void setIndex(int index) {
+        if (index < windowStart) {
+            throw new IllegalStateException("Can't rewind to " + index + ", everything before " + windowStart
+                    + " has been discarded. Only marked positions can be rewound to");
+        }
+        while (index > windowStart + filled && fill()) {
+            // read up to the new index
+        }
+        if (index > windowStart + filled) {
+            throw new IndexOutOfBoundsException("Need to set the index between " + windowStart + " and "
+                    + (windowStart + filled));
+        }
+        this.index = index;
+    }
+
+    @Override
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < windowStart + filled || fill();
+    }
+
+    @Override
+    public int advanceWhile(CharClass chars) {
+        int start = index;
+        while (hasNext()) {
+            int limit = windowStart + filled;
+            while (index < limit && chars.contains(window[index - windowStart])) {
+                index++;
+            }
+            if (index < limit) {
+                break;
+            }
+        }
+        return index - start;
+    }
+
+    @Override
+    public int mark() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, marks.length * 2);
+        }
+        marks[markCount] = index;
+        return markCount++;
+    }
+
+    @Override
+    public void release(int mark) {
+        markCount = Math.min(markCount, mark);
+    }
+
+    /**
+     * Reads the rest of the stream into memory, without moving the index
+     *
+     * @return
+     */
+    @Override
+    public Optional<String> rest() {
+        while (fill()) {
+            // read everything
+        }
+        return Optional.of(new String(window, index - windowStart, windowStart + filled - index));
+    }
+
+    @Override
+    public CharSequence slice(int start, int end) {
+        if (start < windowStart || end > windowStart + filled) {
+            throw new IllegalStateException("[" + start + ", " + end + ") is outside of the retained window ["
+                    + windowStart + ", " + (windowStart + filled) + ")");
+        }
+        return new String(window, start - windowStart, end - start);
+    }
+
+    /**
+     * Read another chunk into the window, discarding what can no longer be reached
+     *
+     * @return false if the reader is exhausted
+     */
+    private boolean fill() {
+        if (eof) {
+            return false;
+        }
+        int keepFrom = markCount > 0 ? Math.min(marks[0], index) : index;
+        int discard = keepFrom - windowStart;
+        if (discard > 0) {
+            System.arraycopy(window, discard, window, 0, filled - discard);
+            filled -= discard;
+            windowStart = keepFrom;
+        }
+        if (filled == window.length) {
+            window = Arrays.copyOf(window, window.length * 2);
+        }
+
+        try {
+            int count = reader.read(window, filled, window.length - filled);
+            if (count < 0) {
+                eof = true;
+                return false;
+            }
+            filled += count;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public ParseState getState() {
+        return state;
+    }
+}
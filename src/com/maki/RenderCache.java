@@ -0,0 +1,226 @@
+package com.maki;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Remembers rendered posts, so a post that is asked for again isn't parsed again. Posts are looked up by their
+ * content hash and length together with the grammar that rendered them, and the post itself is kept with its
+ * rendered text and compared on every hit. The hash isn't made to stand up to someone choosing the contents, so two
+ * different posts can be made to collide, but they never get each other's text.
+ *
+ * The cache is bounded by the memory the rendered text takes, not the number of posts. It is split into segments,
+ * each with its own lock and its own share of the budget, and each evicts its least recently used posts when it is
+ * over. A post whose source and rendered text together take more than one segment's share is rendered every time,
+ * never cached, so size the budget (or lower the concurrency) for the largest posts you want kept. Rendering happens
+ * outside the lock, so a slow post never holds up the others. Two threads that miss on the same post at the same time
+ * may both render it.
+ */
+public class RenderCache {
+    //Roughly what an entry costs besides its chars: the key, the map entry and the two Strings
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Segment[] segments;
+
+    private final long maxBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final ThreadLocal<HtmlRenderer> renderers = ThreadLocal.withInitial(HtmlRenderer::new);
+
+    public RenderCache(long maxBytes) {
+        this(maxBytes, 16);
+    }
+
+    /**
+     * @param maxBytes    roughly how much memory the cached posts may take
+     * @param concurrency how many segments to split the cache into. Rounded up to a power of two. Each segment gets
+     *                    an equal share of maxBytes, and no post bigger than a share is cached
+     */
+    public RenderCache(long maxBytes, int concurrency) {
+        if (maxBytes <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("maxBytes " + maxBytes + " concurrency " + concurrency);
+        }
+        int count = 1;
+        while (count < concurrency) {
+            count <<= 1;
+        }
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maxBytes / count);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The post rendered with {@link HtmlRenderer}
+     *
+     * @param post
+     * @return
+     */
+    public String render(String post) {
+        return get(HtmlRenderer.class.getName(), post, text -> {
+            StringBuilder html = new StringBuilder(text.length() + text.length() / 4);
+            renderers.get().render(text, html);
+            return html.toString();
+        });
+    }
+
+    /**
+     * The post as render renders it, from the cache if it's there
+     *
+     * @param grammar identifies render. Change it whenever render would give a different answer
+     * @param post
+     * @param render
+     * @return
+     */
+    public String get(String grammar, String post, Function<? super String, String> render) {
+        Key key = new Key(grammar, Utility.contentHash(post), post);
+        //The top bits pick the segment, the map inside it uses the bottom ones
+        Segment segment = segments[(int) (key.hash >>> 40) & (segments.length - 1)];
+
+        String cached = segment.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        String rendered = render.apply(post);
+        segment.put(key, rendered);
+        return rendered;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return roughly how much memory the cached posts take now
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return how many posts are cached
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Drop every post. The counters are kept
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private static long weight(Key key, String html) {
+        return ENTRY_OVERHEAD + 2L * (key.post.length() + html.length());
+    }
+
+    private static final class Key {
+        private final String grammar;
+        private final long hash;
+        //Compared last, after the hash has all but settled it
+        private final String post;
+
+        Key(String grammar, long hash, String post) {
+            this.grammar = grammar;
+            this.hash = hash;
+            this.post = post;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && post.length() == key.post.length() && grammar.equals(key.grammar)
+                    && post.equals(key.post);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
+    /**
+     * One lock's worth of the cache. The map is in access order, so the eldest entry is the least recently used
+     */
+    private final class Segment {
+        private final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxBytes;
+        private long bytes;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized String get(Key key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(Key key, String html) {
+            long weight = weight(key, html);
+            if (weight > maxBytes) {
+                //It would push out everything else and still not fit
+                return;
+            }
+            String old = entries.put(key, html);
+            bytes += weight;
+            if (old != null) {
+                bytes -= weight(key, old);
+            }
+            Iterator<Map.Entry<Key, String>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes) {
+                Map.Entry<Key, String> entry = eldest.next();
+                bytes -= weight(entry.getKey(), entry.getValue());
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.maki;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Renders every post under a source directory to HTML under an output directory, several posts at a time. A manifest
+ * in the output directory records the content hash of every post that was rendered, along with the grammar version it
+ * was rendered with, so the next build only renders posts that changed. Changing the grammar version renders
+ * everything again.
+ *
+ * Run it from the command line with: SiteBuilder source output [grammarVersion [threads]]
+ */
+public class SiteBuilder {
+    public static final String MANIFEST = ".site-manifest";
+
+    private static final String HEADER = "grammar\t";
+
+    private final String grammarVersion;
+
+    private final int threads;
+
+    //Renderers hold buffers, so each thread gets its own
+    private final ThreadLocal<HtmlRenderer> renderers = ThreadLocal.withInitial(HtmlRenderer::new);
+
+    public SiteBuilder(String grammarVersion) {
+        this(grammarVersion, Runtime.getRuntime().availableProcessors());
+    }
+
+    public SiteBuilder(String grammarVersion, int threads) {
+        if (grammarVersion.indexOf('\n') >= 0 || threads < 1) {
+            throw new IllegalArgumentException("grammarVersion " + grammarVersion + " threads " + threads);
+        }
+        this.grammarVersion = grammarVersion;
+        this.threads = threads;
+    }
+
+    /**
+     * Render every .md file under source that changed since the last build to the same relative path under output,
+     * with an .html extension. Output for posts that no longer exist is deleted
+     *
+     * @param source
+     * @param output
+     * @return what was done
+     * @throws IOException if a post can't be read or written. Posts that were rendered are still in the manifest
+     */
+    public Result build(Path source, Path output) throws IOException {
+        Files.createDirectories(output);
+        Path manifestFile = output.resolve(MANIFEST);
+        Map<String, Long> previous = readManifest(manifestFile);
+        Map<String, Long> current = new ConcurrentHashMap<>();
+
+        List<Path> posts;
+        try (Stream<Path> files = Files.walk(source)) {
+            posts = files.filter(file -> file.toString().endsWith(".md") && Files.isRegularFile(file))
+                    .collect(Collectors.toList());
+        }
+
+        AtomicInteger rendered = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>(posts.size());
+        try {
+            for (Path post : posts) {
+                String name = name(source, post);
+                futures.add(executor.submit(() -> {
+                    byte[] bytes = Files.readAllBytes(post);
+                    long hash = Utility.contentHash(bytes);
+                    Path target = output.resolve(htmlName(name));
+                    Long last = previous.get(name);
+                    if (last == null || last != hash || !Files.exists(target)) {
+                        render(new String(bytes, StandardCharsets.UTF_8), target);
+                        rendered.incrementAndGet();
+                    }
+                    current.put(name, hash);
+                    return null;
+                }));
+            }
+            IOException failure = await(futures);
+
+            int removed = 0;
+            for (String name : previous.keySet()) {
+                //Posts that failed aren't in current either, but their output isn't stale
+                if (!current.containsKey(name) && Files.notExists(source.resolve(name))
+                        && Files.deleteIfExists(output.resolve(htmlName(name)))) {
+                    removed++;
+                }
+            }
+            writeManifest(manifestFile, current);
+            if (failure != null) {
+                throw failure;
+            }
+            return new Result(rendered.get(), posts.size() - rendered.get(), removed);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void render(String post, Path target) throws IOException {
+        StringBuilder html = new StringBuilder(post.length() + post.length() / 4);
+        renderers.get().render(post, html);
+        Path parent = target.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            writer.append(html);
+        }
+    }
+
+    /**
+     * Wait for every task, so none are still writing when the manifest is saved
+     *
+     * @return the first failure, if there was one
+     */
+    private static IOException await(List<Future<?>> futures) throws IOException {
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while building", e);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        failure = (IOException) cause;
+                    } else if (cause instanceof UncheckedIOException) {
+                        failure = ((UncheckedIOException) cause).getCause();
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        throw new IllegalStateException(cause);
+                    }
+                }
+            }
+        }
+        return failure;
+    }
+
+    /**
+     * The manifest is a header line with the grammar version, then one line per post: its hash in hex, a tab, and
+     * its path relative to the source directory. A missing manifest, or one from another grammar version, is empty
+     */
+    private Map<String, Long> readManifest(Path file) throws IOException {
+        Map<String, Long> manifest = new HashMap<>();
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        boolean sameGrammar = !lines.isEmpty() && lines.get(0).equals(HEADER + grammarVersion);
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int tab = line.indexOf('\t');
+            if (tab > 0) {
+                long hash = Long.parseUnsignedLong(line.substring(0, tab), 16);
+                //Posts from another grammar still count for deleting stale output, they just never match a hash
+                manifest.put(line.substring(tab + 1), sameGrammar ? hash : null);
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Written to a temporary file and moved into place, so a crash never leaves half a manifest
+     */
+    private void writeManifest(Path file, Map<String, Long> manifest) throws IOException {
+        Path temporary = file.resolveSibling(MANIFEST + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.append(HEADER).append(grammarVersion).append('\n');
+            for (Map.Entry<String, Long> entry : new TreeMap<>(manifest).entrySet()) {
+                writer.append(Long.toHexString(entry.getValue())).append('\t').append(entry.getKey()).append('\n');
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String name(Path source, Path post) {
+        return source.relativize(post).toString().replace('\\', '/');
+    }
+
+    private static String htmlName(String name) {
+        return name.substring(0, name.length() - ".md".length()) + ".html";
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: SiteBuilder source output [grammarVersion [threads]]");
+            System.exit(2);
+        }
+        String version = args.length > 2 ? args[2] : "1";
+        SiteBuilder builder = args.length > 3 ? new SiteBuilder(version, Integer.parseInt(args[3]))
+                : new SiteBuilder(version);
+        long start = System.nanoTime();
+        Result result = builder.build(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println(result + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+    }
+
+    /**
+     * How many posts a build rendered, how many it skipped because they hadn't changed, and how many it deleted the
+     * output of because the post was gone
+     */
+    public static final class Result {
+        private final int rendered;
+        private final int skipped;
+        private final int removed;
+
+        Result(int rendered, int skipped, int removed) {
+            this.rendered = rendered;
+            this.skipped = skipped;
+            this.removed = removed;
+        }
+
+        public int getRendered() {
+            return rendered;
+        }
+
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        @Override
+        public String toString() {
+            return "rendered " + rendered + ", skipped " + skipped + ", removed " + removed;
+        }
+    }
+}
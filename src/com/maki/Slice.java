@@ -0,0 +1,51 @@
+package com.maki;
+
+/**
+ * A view of part of a string, so slicing the input doesn't copy anything until someone calls toString.
+ */
+public final class Slice implements CharSequence {
+    private final String text;
+    private final int start;
+    private final int end;
+
+    public Slice(String text, int start, int end) {
+        if (start < 0 || end > text.length() || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") is outside of [0, " + text.length()
+                    + ")");
+        }
+        this.text = text;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("Index " + index + " of a slice of length " + (end - start));
+        }
+        return text.charAt(start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") is outside of [0, " + length() + ")");
+        }
+        return new Slice(text, this.start + start, this.start + end);
+    }
+
+    /**
+     * The one place the chars are copied
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return text.substring(start, end);
+    }
+}
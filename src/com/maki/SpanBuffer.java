@@ -0,0 +1,75 @@
+package com.maki;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of (start, end) offsets into the parser input, stored in a single int array. Used by the span
+ * result mode so that matches don't have to be copied into Strings until someone asks for them. Can be cleared and
+ * reused between parses.
+ */
+public class SpanBuffer {
+    private int[] spans;
+    private int size = 0;
+
+    public SpanBuffer() {
+        this(16);
+    }
+
+    /**
+     * @param capacity the number of spans to make room for up front
+     */
+    public SpanBuffer(int capacity) {
+        spans = new int[Math.max(capacity, 1) * 2];
+    }
+
+    /**
+     * Append the span [start, end)
+     *
+     * @param start
+     * @param end
+     */
+    public void add(int start, int end) {
+        if (size * 2 == spans.length) {
+            spans = Arrays.copyOf(spans, spans.length * 2);
+        }
+        spans[size * 2] = start;
+        spans[size * 2 + 1] = end;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int i) {
+        checkIndex(i);
+        return spans[i * 2];
+    }
+
+    public int end(int i) {
+        checkIndex(i);
+        return spans[i * 2 + 1];
+    }
+
+    /**
+     * Drop every span after the first newSize spans. Used to roll back a failed parse
+     *
+     * @param newSize must not be greater than the current size
+     */
+    public void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("Can't truncate " + size + " spans to " + newSize);
+        }
+        size = newSize;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Span " + i + " out of " + size);
+        }
+    }
+}
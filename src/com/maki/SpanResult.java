@@ -0,0 +1,86 @@
+package com.maki;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The result of parsing in span mode. Holds offsets into the input instead of Strings, strings are only built when
+ * asked for.
+ */
+public class SpanResult {
+    private boolean matched;
+
+    private SpanBuffer spans;
+
+    private ParserInput rest;
+
+    public SpanResult(boolean matched, SpanBuffer spans, ParserInput rest) {
+        this.matched = matched;
+        this.spans = spans;
+        this.rest = rest;
+    }
+
+    /**
+     * For {@link ParseContext}, which keeps one result and refills it after every parse
+     */
+    void setMatched(boolean matched) {
+        this.matched = matched;
+    }
+
+    public boolean isMatched() {
+        return matched;
+    }
+
+    /**
+     * The number of results. Zero if the parse failed
+     *
+     * @return
+     */
+    public int size() {
+        return matched ? spans.size() : 0;
+    }
+
+    public int start(int i) {
+        return spans.start(i);
+    }
+
+    public int end(int i) {
+        return spans.end(i);
+    }
+
+    /**
+     * The text of the i-th result
+     *
+     * @param i
+     * @return
+     */
+    public CharSequence getSlice(int i) {
+        return rest.slice(spans.start(i), spans.end(i));
+    }
+
+    public String getString(int i) {
+        return getSlice(i).toString();
+    }
+
+    /**
+     * Build the same kind of list {@link ParserResult#getParsed()} returns. This allocates every string, so only use it
+     * when you need all of them
+     *
+     * @return
+     */
+    public Optional<List<String>> getParsed() {
+        if (!matched) {
+            return Optional.empty();
+        }
+        List<String> results = new ArrayList<>(spans.size());
+        for (int i = 0; i < spans.size(); i++) {
+            results.add(getString(i));
+        }
+        return Optional.of(results);
+    }
+
+    public Optional<?> getRest() {
+        return rest.rest();
+    }
+}
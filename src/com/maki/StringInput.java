@@ -7,36 +7,58 @@ import java.util.Optional;
  */
 public class StringInput implements ParserInput {
     private String theString;
-    private int counter = 0;
 
     private int index = 0;
+
+    //The part of the string being parsed. Indexes are still positions in the whole string
+    private int start;
+    private int end;
+
+    private ParseState state = new ParseState();
     public StringInput(String theString) {
+        this(theString, 0, theString.length());
+    }
+
+    /**
+     * Parse only the chars from start up to end, as if the rest of the string wasn't there
+     *
+     * @param theString
+     * @param start where parsing starts
+     * @param end   where the input ends, exclusive
+     */
+    public StringInput(String theString, int start, int end) {
+        reset(theString, start, end);
+    }
+
+    /**
+     * Point the input at another part of a string, or another string, so one input can be reused
+     */
+    void reset(String theString, int start, int end) {
+        if (start < 0 || end > theString.length() || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") is outside of [0, "
+                    + theString.length() + ")");
+        }
         this.theString = theString;
+        this.start = start;
+        this.end = end;
+        this.index = start;
     }
 
     //TODO make this safe! We don't want index out of bounds errors
     @Override
     public char read() {
-        System.out.println(String.valueOf(theString.charAt(index)) + " i: " + index);
-        if (counter == 25) {
-            System.exit(1);
-            return 'a';
-        } else {
-            counter++;
-        }
         return theString.charAt(index);
     }
 
 
     @Override
     public void advance() {
-        System.out.println("Advance");
         index += 1;
     }
 
     public void setIndex(int index) {
-        if(index < 0 || index > theString.length() - 1) {
-            throw new IndexOutOfBoundsException("Need to set the index between 0 merge " + (theString.length() - 1));
+        if(index < start || index > end) {
+            throw new IndexOutOfBoundsException("Need to set the index between " + start + " and " + end);
         }
         this.index = index;
     }
@@ -48,11 +70,98 @@ public class StringInput implements ParserInput {
 
     @Override
     public boolean hasNext() {
-        return index < theString.length();
+        return index < end;
     }
 
     @Override
     public Optional<String> rest() {
-        return Optional.of(theString.substring(getIndex()));
+        return Optional.of(theString.substring(getIndex(), end));
+    }
+
+    @Override
+    public int advanceWhile(CharClass chars) {
+        int from = index;
+        while (index < end && chars.contains(theString.charAt(index))) {
+            index++;
+        }
+        return index - from;
+    }
+
+    @Override
+    public int advanceUntilAny(char[] delimiters) {
+        int from = index;
+        if (delimiters.length == 1 && end == theString.length()) {
+            int found = theString.indexOf(delimiters[0], index);
+            index = found < 0 ? end : found;
+            return index - from;
+        }
+        //Delimiters are nearly always ASCII, so most chars are ruled out with one mask lookup
+        long low = 0;
+        long high = 0;
+        boolean nonAscii = false;
+        for (char delimiter : delimiters) {
+            if (delimiter < 64) {
+                low |= 1L << delimiter;
+            } else if (delimiter < 128) {
+                high |= 1L << (delimiter - 64);
+            } else {
+                nonAscii = true;
+            }
+        }
+        while (index < end) {
+            char inputChar = theString.charAt(index);
+            if (inputChar < 64 ? (low & (1L << inputChar)) != 0
+                    : inputChar < 128 ? (high & (1L << (inputChar - 64))) != 0
+                    : nonAscii && isAny(inputChar, delimiters)) {
+                break;
+            }
+            index++;
+        }
+        return index - from;
+    }
+
+    private static boolean isAny(char inputChar, char[] delimiters) {
+        for (char delimiter : delimiters) {
+            if (inputChar == delimiter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean match(String text) {
+        if (index + text.length() <= end && theString.startsWith(text, index)) {
+            index += text.length();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A view of the string, nothing is copied until toString
+     *
+     * @param start
+     * @param end
+     * @return
+     */
+    @Override
+    public CharSequence slice(int start, int end) {
+        return new Slice(theString, start, end);
+    }
+
+    /**
+     * The string itself, or a view of it that stops at the end of the part being parsed
+     *
+     * @return
+     */
+    @Override
+    public CharSequence asCharSequence() {
+        return end == theString.length() ? theString : new Slice(theString, 0, end);
+    }
+
+    @Override
+    public ParseState getState() {
+        return state;
     }
 }
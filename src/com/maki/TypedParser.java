@@ -0,0 +1,252 @@
+package com.maki;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collector;
+
+/**
+ * A parser that builds a value of type T as it goes, so a grammar can produce its syntax tree directly instead of a
+ * list of strings that has to be picked apart again. Untyped parsers come in through {@link #text(Parser)} and
+ * {@link #list(Parser)}, and are run in span mode where possible so no intermediate strings are built.
+ *
+ * Like Parser, typed parsers are immutable and keep all parse state in the input, and a failed parser leaves the
+ * input where it found it.
+ */
+public final class TypedParser<T> {
+    //What function returns on failure, so values don't have to be wrapped in Optionals
+    private static final Object NO_MATCH = new Object();
+
+    private final Function<ParserInput, Object> function;
+
+    /**
+     * Every character this parser can start with. null when that's not known, or when it can match nothing
+     */
+    private final CharClass first;
+
+    private TypedParser(Function<ParserInput, Object> function, CharClass first) {
+        this.function = function;
+        this.first = first;
+    }
+
+    /**
+     * Runs the parser and returns the text it consumed, without building any of its results
+     *
+     * @param parser
+     * @return
+     */
+    public static TypedParser<String> text(Parser parser) {
+        return new TypedParser<>(input -> {
+            int start = input.getIndex();
+            //Keeps the text from being discarded while the parser reads ahead
+            int mark = input.mark();
+            SpanBuffer spans = input.getState().getSpanBuffer();
+            spans.clear();
+            if (!parser.applySpansRoot(input, spans)) {
+                input.release(mark);
+                return NO_MATCH;
+            }
+            String text = input.slice(start, input.getIndex()).toString();
+            input.release(mark);
+            return text;
+        }, parser.firstSet().orElse(null));
+    }
+
+    /**
+     * Runs the parser and returns its results as they are, for grammars that still want the string lists
+     *
+     * @param parser
+     * @return
+     */
+    public static TypedParser<List<String>> list(Parser parser) {
+        return new TypedParser<>(input -> {
+            int position = input.getIndex();
+            Optional<List<String>> result = parser.applyRoot(input);
+            if (!result.isPresent()) {
+                //Some parsers don't rewind on failure in list mode
+                input.setIndex(position);
+                return NO_MATCH;
+            }
+            return result.get();
+        }, parser.firstSet().orElse(null));
+    }
+
+    /**
+     * Turn the value into something else. This is where syntax tree nodes get built
+     *
+     * @param mapper
+     * @param <R>
+     * @return
+     */
+    public <R> TypedParser<R> map(Function<? super T, ? extends R> mapper) {
+        return new TypedParser<>(input -> {
+            Object value = function.apply(input);
+            return value == NO_MATCH ? NO_MATCH : mapper.apply(cast(value));
+        }, first);
+    }
+
+    /**
+     * Runs one parser and then the other, and returns both values. Rewinds and fails if either fails
+     *
+     * @param first
+     * @param second
+     * @param <A>
+     * @param <B>
+     * @return
+     */
+    public static <A, B> TypedParser<Pair<A, B>> seq(TypedParser<A> first, TypedParser<B> second) {
+        return new TypedParser<>(input -> {
+            int position = input.getIndex();
+            int mark = input.mark();
+            Object a = first.function.apply(input);
+            if (a == NO_MATCH) {
+                input.release(mark);
+                return NO_MATCH;
+            }
+            Object b = second.function.apply(input);
+            if (b == NO_MATCH) {
+                input.setIndex(position);
+                input.release(mark);
+                return NO_MATCH;
+            }
+            input.release(mark);
+            return new Pair<A, B>(cast(a), cast(b));
+        }, first.first);
+    }
+
+    /**
+     * The content's value, between an opening and a closing parser whose results are thrown away. Rewinds and fails
+     * if any of the three fails
+     *
+     * @param open
+     * @param content
+     * @param close
+     * @param <T>
+     * @return
+     */
+    public static <T> TypedParser<T> between(Parser open, TypedParser<T> content, Parser close) {
+        return new TypedParser<>(input -> {
+            int position = input.getIndex();
+            int mark = input.mark();
+            SpanBuffer spans = input.getState().getSpanBuffer();
+            spans.clear();
+            if (!open.applySpansRoot(input, spans)) {
+                input.release(mark);
+                return NO_MATCH;
+            }
+            Object value = content.function.apply(input);
+            spans.clear();
+            if (value == NO_MATCH || !close.applySpansRoot(input, spans)) {
+                input.setIndex(position);
+                input.release(mark);
+                return NO_MATCH;
+            }
+            input.release(mark);
+            return value;
+        }, open.firstSet().orElse(null));
+    }
+
+    /**
+     * Tries each parser in order and returns the value of the first that succeeds. Like Parser.or, alternatives
+     * that can't start with the next character are skipped without being run
+     *
+     * @param alternative
+     * @param alternatives
+     * @param <T>
+     * @return
+     */
+    @SafeVarargs
+    public static <T> TypedParser<T> or(TypedParser<? extends T> alternative,
+                                        TypedParser<? extends T>... alternatives) {
+        TypedParser<?>[] all = new TypedParser<?>[1 + alternatives.length];
+        all[0] = alternative;
+        //Copied one by one, handing the varargs array itself to anything else would be heap pollution
+        for (int i = 0; i < alternatives.length; i++) {
+            all[i + 1] = alternatives[i];
+        }
+
+        CharClass[] firsts = new CharClass[all.length];
+        CharClass first = CharClass.of("");
+        for (int i = 0; i < all.length; i++) {
+            firsts[i] = all[i].first;
+            first = first == null || firsts[i] == null ? null : first.union(firsts[i]);
+        }
+        DispatchTable dispatch = new DispatchTable(firsts);
+
+        return new TypedParser<>(input -> {
+            //Failed alternatives never move the input, so the candidates stay valid
+            int[] candidates = dispatch.candidates(input);
+            boolean exact = dispatch.isExact(candidates);
+            for (int candidate : candidates) {
+                if (exact || dispatch.isViable(candidate, input)) {
+                    Object value = all[candidate].function.apply(input);
+                    if (value != NO_MATCH) {
+                        return value;
+                    }
+                }
+            }
+            return NO_MATCH;
+        }, first);
+    }
+
+    /**
+     * Runs the parser as many times as it succeeds, zero included, and collects the values. Stops if the parser
+     * succeeds without consuming anything, since it would do that forever
+     *
+     * @param parser
+     * @param collector
+     * @param <T>
+     * @param <A>
+     * @param <R>
+     * @return
+     */
+    public static <T, A, R> TypedParser<R> many(TypedParser<T> parser, Collector<? super T, A, R> collector) {
+        BiConsumer<A, ? super T> accumulator = collector.accumulator();
+        return new TypedParser<>(input -> {
+            A container = collector.supplier().get();
+            while (true) {
+                int position = input.getIndex();
+                Object value = parser.function.apply(input);
+                if (value == NO_MATCH) {
+                    break;
+                }
+                accumulator.accept(container, cast(value));
+                if (input.getIndex() == position) {
+                    break;
+                }
+            }
+            return collector.finisher().apply(container);
+        }, null);
+    }
+
+    /**
+     * Every character this parser can start with, if that's known
+     *
+     * @return
+     */
+    public Optional<CharClass> firstSet() {
+        return Optional.ofNullable(first);
+    }
+
+    public Optional<T> parse(String input) {
+        return parse(new StringInput(input));
+    }
+
+    /**
+     * Parse any kind of input. The input is left after whatever was parsed
+     *
+     * @param input
+     * @return the value, or empty if the parser failed or the value was null
+     */
+    public Optional<T> parse(ParserInput input) {
+        Object value = function.apply(input);
+        input.getState().reset();
+        return value == NO_MATCH ? Optional.empty() : Optional.ofNullable(cast(value));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T) value;
+    }
+}
@@ -0,0 +1,91 @@
+package com.maki;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes UTF-8 one char at a time, straight out of a ByteBuffer. Positions are byte offsets. A code point outside
+ * the BMP is two chars in Java, so it gets two positions: the lead byte is the high surrogate and the byte after it
+ * is the low surrogate. That byte is a continuation byte, so it can't be confused with the start of a sequence.
+ * Malformed bytes read as U+FFFD, one byte each.
+ */
+final class Utf8 {
+    static final char REPLACEMENT = '\uFFFD';
+
+    private Utf8() {
+    }
+
+    /**
+     * The char at the given byte offset
+     */
+    static char charAt(ByteBuffer buffer, int offset) {
+        int b = buffer.get(offset) & 0xFF;
+        if (b < 0x80) {
+            return (char) b;
+        }
+        if (b < 0xC0) {
+            if (isLowSurrogatePosition(buffer, offset)) {
+                return Character.lowSurrogate(codePoint(buffer, offset - 1, 4));
+            }
+            return REPLACEMENT;
+        }
+        int length = sequenceLength(buffer, offset);
+        if (length == 1) {
+            return REPLACEMENT;
+        }
+        int codePoint = codePoint(buffer, offset, length);
+        return length == 4 ? Character.highSurrogate(codePoint) : (char) codePoint;
+    }
+
+    /**
+     * The byte offset of the char after the one at offset
+     */
+    static int next(ByteBuffer buffer, int offset) {
+        int b = buffer.get(offset) & 0xFF;
+        if (b < 0x80) {
+            return offset + 1;
+        }
+        if (b < 0xC0) {
+            return isLowSurrogatePosition(buffer, offset) ? offset + 3 : offset + 1;
+        }
+        int length = sequenceLength(buffer, offset);
+        return length == 4 ? offset + 1 : offset + length;
+    }
+
+    /**
+     * Length of the well formed sequence starting at offset, or 1 if it's malformed
+     */
+    private static int sequenceLength(ByteBuffer buffer, int offset) {
+        int b = buffer.get(offset) & 0xFF;
+        int length;
+        if (b >= 0xC2 && b < 0xE0) {
+            length = 2;
+        } else if (b >= 0xE0 && b < 0xF0) {
+            length = 3;
+        } else if (b >= 0xF0 && b < 0xF5) {
+            length = 4;
+        } else {
+            return 1;
+        }
+        if (offset + length > buffer.limit()) {
+            return 1;
+        }
+        for (int i = 1; i < length; i++) {
+            if ((buffer.get(offset + i) & 0xC0) != 0x80) {
+                return 1;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isLowSurrogatePosition(ByteBuffer buffer, int offset) {
+        return offset > 0 && (buffer.get(offset) & 0xC0) == 0x80 && sequenceLength(buffer, offset - 1) == 4;
+    }
+
+    private static int codePoint(ByteBuffer buffer, int offset, int length) {
+        int codePoint = buffer.get(offset) & (0xFF >> (length + 1));
+        for (int i = 1; i < length; i++) {
+            codePoint = (codePoint << 6) | (buffer.get(offset + i) & 0x3F);
+        }
+        return codePoint;
+    }
+}
@@ -0,0 +1,199 @@
+package com.maki;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Optional;
+
+/**
+ * Reads UTF-8 bytes as they are, so a post that arrives as bytes never has to be decoded into a String first. The
+ * index is a byte offset. ASCII bytes are read straight out of the array, multi-byte sequences are only decoded when
+ * the parser reads them, so matching by char works the same as it does on a String.
+ */
+public class Utf8Input implements ParserInput {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private final ByteBuffer buffer;
+
+    //The same bytes, read eight at a time when scanning. Little endian, so the first byte is the lowest
+    private final ByteBuffer words;
+
+    //The bytes themselves when the buffer has an array, so the ASCII path is a plain array read
+    private final byte[] array;
+    private final int arrayOffset;
+
+    private final int limit;
+
+    private int index = 0;
+
+    private ParseState state = new ParseState();
+
+    public Utf8Input(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads the buffer from its position to its limit. The buffer itself isn't moved
+     *
+     * @param buffer
+     */
+    public Utf8Input(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        this.words = this.buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.limit = this.buffer.limit();
+        if (this.buffer.hasArray()) {
+            this.array = this.buffer.array();
+            this.arrayOffset = this.buffer.arrayOffset();
+        } else {
+            this.array = null;
+            this.arrayOffset = 0;
+        }
+    }
+
+    private byte byteAt(int offset) {
+        return array != null ? array[arrayOffset + offset] : buffer.get(offset);
+    }
+
+    @Override
+    public char read() {
+        byte b = byteAt(index);
+        return b >= 0 ? (char) b : Utf8.charAt(buffer, index);
+    }
+
+    @Override
+    public void advance() {
+        index = byteAt(index) >= 0 ? index + 1 : Utf8.next(buffer, index);
+    }
+
+    @Override
+    public void setIndex(int index) {
+        if (index < 0 || index > limit) {
+            throw new IndexOutOfBoundsException("Need to set the index between 0 and " + limit);
+        }
+        this.index = index;
+    }
+
+    @Override
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < limit;
+    }
+
+    /**
+     * A lazy view of everything after the index. Call toString on it if you really want a copy
+     *
+     * @return
+     */
+    @Override
+    public Optional<CharSequence> rest() {
+        return Optional.of(slice(index, limit));
+    }
+
+    @Override
+    public int advanceWhile(CharClass chars) {
+        int position = index;
+        int count = 0;
+        while (position < limit) {
+            byte b = byteAt(position);
+            if (b >= 0) {
+                if (!chars.contains((char) b)) {
+                    break;
+                }
+                position++;
+            } else {
+                if (!chars.contains(Utf8.charAt(buffer, position))) {
+                    break;
+                }
+                position = Utf8.next(buffer, position);
+            }
+            count++;
+        }
+        index = position;
+        return count;
+    }
+
+    /**
+     * Runs of ASCII are searched eight bytes at a time: each delimiter is xored into the word, and the lowest byte
+     * that came out zero is the first match. Everything else goes one char at a time
+     */
+    @Override
+    public int advanceUntilAny(char[] delimiters) {
+        int position = index;
+        int count = 0;
+        search:
+        while (position < limit) {
+            if (position + 8 <= limit) {
+                long word = words.getLong(position);
+                if ((word & HIGH_BITS) == 0) {
+                    long found = 0;
+                    for (char delimiter : delimiters) {
+                        if (delimiter < 128) {
+                            long x = word ^ (delimiter * ONES);
+                            //Exact here, since every byte of x is under 0x80
+                            found |= (x - ONES) & ~x & HIGH_BITS;
+                        }
+                    }
+                    if (found == 0) {
+                        position += 8;
+                        count += 8;
+                        continue;
+                    }
+                    int skipped = Long.numberOfTrailingZeros(found) >>> 3;
+                    position += skipped;
+                    count += skipped;
+                    break;
+                }
+            }
+            byte b = byteAt(position);
+            char inputChar = b >= 0 ? (char) b : Utf8.charAt(buffer, position);
+            for (char delimiter : delimiters) {
+                if (inputChar == delimiter) {
+                    break search;
+                }
+            }
+            position = b >= 0 ? position + 1 : Utf8.next(buffer, position);
+            count++;
+        }
+        index = position;
+        return count;
+    }
+
+    @Override
+    public boolean match(String text) {
+        int position = index;
+        for (int i = 0; i < text.length(); i++) {
+            if (position >= limit) {
+                return false;
+            }
+            char c = text.charAt(i);
+            byte b = byteAt(position);
+            if (b >= 0) {
+                if (c != b) {
+                    return false;
+                }
+                position++;
+            } else {
+                if (c != Utf8.charAt(buffer, position)) {
+                    return false;
+                }
+                position = Utf8.next(buffer, position);
+            }
+        }
+        index = position;
+        return true;
+    }
+
+    @Override
+    public CharSequence slice(int start, int end) {
+        return new Utf8Slice(buffer, start, end);
+    }
+
+    @Override
+    public ParseState getState() {
+        return state;
+    }
+}
@@ -0,0 +1,86 @@
+package com.maki;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A lazy CharSequence view over a range of UTF-8 bytes. Nothing is decoded until it is read, and toString is the only
+ * thing that copies. Reading front to back is cheap, random access walks from the start. Not thread safe.
+ */
+class Utf8Slice implements CharSequence {
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int end;
+
+    private int length = -1;
+
+    //Where the last charAt left off, so sequential reads don't rescan
+    private int cursorChar = 0;
+    private int cursorOffset;
+
+    Utf8Slice(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+        this.cursorOffset = start;
+    }
+
+    @Override
+    public int length() {
+        if (length < 0) {
+            int count = 0;
+            for (int offset = start; offset < end; offset = Utf8.next(buffer, offset)) {
+                count++;
+            }
+            length = count;
+        }
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return Utf8.charAt(buffer, offsetOf(index));
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || from > to || to > length()) {
+            throw new IndexOutOfBoundsException("Can't take [" + from + ", " + to + ") of " + length());
+        }
+        int fromOffset = from == length() ? end : offsetOf(from);
+        int toOffset = to == length() ? end : offsetOf(to);
+        return new Utf8Slice(buffer, fromOffset, toOffset);
+    }
+
+    @Override
+    public String toString() {
+        //Decoded by hand so a slice that splits a surrogate pair matches what read() returned
+        StringBuilder builder = new StringBuilder(end - start);
+        int offset = start;
+        while (offset < end) {
+            byte b = buffer.get(offset);
+            if (b >= 0) {
+                builder.append((char) b);
+                offset++;
+            } else {
+                builder.append(Utf8.charAt(buffer, offset));
+                offset = Utf8.next(buffer, offset);
+            }
+        }
+        return builder.toString();
+    }
+
+    private int offsetOf(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of " + length());
+        }
+        if (index < cursorChar) {
+            cursorChar = 0;
+            cursorOffset = start;
+        }
+        while (cursorChar < index) {
+            cursorOffset = Utf8.next(buffer, cursorOffset);
+            cursorChar++;
+        }
+        return cursorOffset;
+    }
+}
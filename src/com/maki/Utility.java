@@ -1,5 +1,7 @@
 package com.maki;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.List;
 
@@ -9,18 +11,86 @@ import java.util.List;
 public class Utility {
 
     protected static void concatenateBuilder(StringBuilder builder1, StringBuilder builder2) {
-        builder1.ensureCapacity(builder1.length() + builder2.length());
-        for (int i = 0; i < builder2.length(); i++)
-        {
-            builder1.append(builder2.charAt(i));
-        }
+        builder1.append(builder2);
     }
 
     protected static StringBuilder turnListToString(List<String> list) {
-        StringBuilder builder = new StringBuilder("");
-        for (String result : list) {
-            builder.append(result);
+        return new StringBuilder(join(list));
+    }
+
+    /**
+     * Concatenate the strings, copying each one once. A single string is returned as it is
+     *
+     * @param list
+     * @return
+     */
+    static String join(List<String> list) {
+        if (list.isEmpty()) {
+            return "";
+        }
+        if (list.size() == 1) {
+            return list.get(0);
+        }
+        int length = 0;
+        for (String s : list) {
+            length += s.length();
+        }
+        StringBuilder builder = new StringBuilder(length);
+        for (String s : list) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A 64 bit hash of the bytes, for telling whether a file changed. Reads eight bytes at a time. Not for anything
+     * that has to stand up to someone choosing the contents
+     *
+     * @param bytes
+     * @return
+     */
+    static long contentHash(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        long hash = 0x9E3779B97F4A7C15L ^ bytes.length;
+        int i = 0;
+        for (; i + 8 <= bytes.length; i += 8) {
+            hash = mix(hash ^ buffer.getLong(i));
+        }
+        long tail = 0;
+        for (int shift = 0; i < bytes.length; i++, shift += 8) {
+            tail |= (bytes[i] & 0xFFL) << shift;
+        }
+        return mix(hash ^ tail);
+    }
+
+    /**
+     * The same kind of hash over the chars of a string, four at a time, without encoding it first. It doesn't
+     * match the hash of the string's bytes
+     *
+     * @param text
+     * @return
+     */
+    static long contentHash(String text) {
+        int length = text.length();
+        long hash = 0x9E3779B97F4A7C15L ^ ~(long) length;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            hash = mix(hash ^ (text.charAt(i) | (long) text.charAt(i + 1) << 16 | (long) text.charAt(i + 2) << 32
+                    | (long) text.charAt(i + 3) << 48));
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            tail |= (long) text.charAt(i) << shift;
         }
-        return builder;
+        return mix(hash ^ tail);
+    }
+
+    //The murmur3 finalizer. Every input bit affects every output bit
+    private static long mix(long hash) {
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
     }
 }
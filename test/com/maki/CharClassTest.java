@@ -0,0 +1,42 @@
+package com.maki;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class CharClassTest {
+
+    @Test
+    public void of() {
+        CharClass chars = CharClass.of("a*\u8900\u0000");
+
+        assertThat(chars.contains('a'), equalTo(true));
+        assertThat(chars.contains('*'), equalTo(true));
+        assertThat(chars.contains('\u8900'), equalTo(true));
+        assertThat(chars.contains('\u0000'), equalTo(true));
+        assertThat(chars.contains('b'), equalTo(false));
+        assertThat(chars.contains('\u8901'), equalTo(false));
+    }
+
+    @Test
+    public void range() {
+        CharClass chars = CharClass.range('z', '\u00ff');
+
+        assertThat(chars.contains('y'), equalTo(false));
+        assertThat(chars.contains('z'), equalTo(true));
+        assertThat(chars.contains('\u007f'), equalTo(true));
+        assertThat(chars.contains('\u00e9'), equalTo(true));
+        assertThat(chars.contains('\u0100'), equalTo(false));
+    }
+
+    @Test
+    public void negate() {
+        CharClass chars = CharClass.of("*").negate();
+
+        assertThat(chars.contains('*'), equalTo(false));
+        assertThat(chars.contains('a'), equalTo(true));
+        assertThat(chars.contains('\uffff'), equalTo(true));
+        assertThat(chars.negate().contains('*'), equalTo(true));
+    }
+}
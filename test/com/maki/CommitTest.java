@@ -0,0 +1,90 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class CommitTest {
+
+    private static Parser emphasis() {
+        return merge(and(literal('*'), repeatUntil(anyExcept('*')), commit(), literal('*')));
+    }
+
+    @Test
+    public void stopsTheEnclosingOr() {
+        Parser parser = or(and(literal('a'), commit(), literal('b')), literal('a'));
+
+        List<String> resultList = parser.parse("ab").getParsed().get();
+        assertThat(resultList, equalTo(Arrays.asList("a", "b")));
+        assertThat(parser.parseSpans("ab").getParsed().get(), equalTo(Arrays.asList("a", "b")));
+
+        assertThat(parser.parse("ac").getParsed().isPresent(), equalTo(false));
+        assertThat(parser.parseSpans("ac").isMatched(), equalTo(false));
+        assertThat(parser.interpret("ac").isMatched(), equalTo(false));
+    }
+
+    @Test
+    public void failingBeforeTheCommitStillBacktracks() {
+        Parser parser = or(and(literal('a'), literal('b'), commit()), literal('a'));
+        assertThat(parser.parse("ac").getParsed().get(), equalTo(Arrays.asList("a")));
+        assertThat(parser.parseSpans("ac").getString(0), equalTo("a"));
+        assertThat(parser.interpret("ac").getString(0), equalTo("a"));
+    }
+
+    @Test
+    public void onlyTheNearestOrFails() {
+        Parser parser = or(and(literal('x'), or(and(literal('a'), commit(), literal('b')), literal('a'))),
+                literal('x'));
+        assertThat(parser.parse("xac").getParsed().get(), equalTo(Arrays.asList("x")));
+        assertThat(parser.parseSpans("xac").getParsed().get(), equalTo(Arrays.asList("x")));
+        assertThat(parser.interpret("xac").getParsed().get(), equalTo(Arrays.asList("x")));
+    }
+
+    @Test
+    public void unclosedMarkupFailsFast() {
+        Parser parser = repeatUntil(or(emphasis(), any()));
+
+        assertThat(parser.parse("a *b* c").getParsed().get(), equalTo(Arrays.asList("a", " ", "*b*", " ", "c")));
+        assertThat(parser.parse("*abc").getParsed().isPresent(), equalTo(false));
+
+        SpanResult spans = parser.parseSpans("x *abc");
+        assertThat(spans.getParsed().get(), equalTo(Arrays.asList("x", " ")));
+        assertThat(spans.getRest().get().toString(), equalTo("*abc"));
+
+        SpanResult interpreted = parser.interpret("x *abc");
+        assertThat(interpreted.getParsed().get(), equalTo(Arrays.asList("x", " ")));
+        assertThat(interpreted.getRest().get().toString(), equalTo("*abc"));
+    }
+
+    @Test
+    public void commitWithoutAnOrFailsTheParse() {
+        Parser parser = merge(repeat(and(literal('a'), commit(), literal('b')), 2));
+        assertThat(parser.parse("abab").getParsed().get(), equalTo(Arrays.asList("abab")));
+
+        ParserResult result = parser.parse("abac");
+        assertThat(result.getParsed().isPresent(), equalTo(false));
+        assertThat(result.getRest().get(), equalTo("abac"));
+
+        SpanResult spans = parser.parseSpans("abac");
+        assertThat(spans.isMatched(), equalTo(false));
+        assertThat(spans.size(), equalTo(0));
+        assertThat(parser.interpret("abac").isMatched(), equalTo(false));
+    }
+
+    @Test
+    public void streamedInput() {
+        Parser parser = repeatUntil(or(emphasis(), any()));
+        SpanResult spans = parser.parseSpans(new ReaderInput(new StringReader("ab *cd* *ef"), 2), new SpanBuffer());
+        assertThat(spans.isMatched(), equalTo(true));
+        assertThat(spans.size(), equalTo(5));
+        assertThat(spans.start(3), equalTo(3));
+        assertThat(spans.end(3), equalTo(7));
+        assertThat(spans.getRest().get(), equalTo("*ef"));
+    }
+}
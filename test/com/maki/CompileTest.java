@@ -0,0 +1,116 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class CompileTest {
+
+    private void assertSameResults(Parser parser, String... inputs) {
+        Parser compiled = parser.compile();
+        for (String input : inputs) {
+            ParserResult expected = parser.parse(input);
+            ParserResult actual = compiled.parse(input);
+            assertThat(input, actual.getParsed(), equalTo(expected.getParsed()));
+            assertThat(input, actual.getRest(), equalTo(expected.getRest()));
+            assertThat(input, compiled.parseSpans(input).getParsed(), equalTo(parser.parseSpans(input).getParsed()));
+        }
+    }
+
+    @Test
+    public void describeGrammar() {
+        Parser parser = and(literal('*'), merge(repeatUntil(anyExcept('*'))), or(literal("**"), charIn("ab")));
+
+        assertThat(parser.getKind(), equalTo(Kind.AND));
+        assertThat(parser.getChildren().size(), equalTo(3));
+        assertThat(parser.toString(),
+                equalTo("and(literal('*'), merge(repeatUntil(anyExcept('*'))), or(literal(\"**\"), charIn([ab])))"));
+    }
+
+    @Test
+    public void fuseLiterals() {
+        Parser parser = merge(and(literal('a'), literal('b'), and(literal('c'), literal('d'))));
+        Parser compiled = parser.compile();
+
+        assertThat(compiled.toString(), equalTo("literal(\"abcd\")"));
+        assertSameResults(parser, "abcde", "abd", "");
+    }
+
+    @Test
+    public void literalsKeepTheirResultsAtTheTop() {
+        Parser parser = and(literal('a'), literal('b'));
+
+        assertThat(parser.compile().toString(), equalTo("and(literal('a'), literal('b'))"));
+        assertSameResults(parser, "ab", "ac");
+    }
+
+    @Test
+    public void scanForDelimiter() {
+        Parser parser = and(literal('*'), merge(repeatUntil(anyExcept('*'))), literal('*'));
+        Parser compiled = parser.compile();
+
+        assertThat(compiled.toString(), equalTo("and(literal('*'), scanUntilAny(\"*\"), literal('*'))"));
+        assertSameResults(parser, "*bold*", "*unclosed", "**", "x");
+    }
+
+    @Test
+    public void scanForFewExcludedChars() {
+        Parser parser = or(takeWhile(CharClass.of("*`[\n").negate()), takeWhile(CharClass.of("abcde").negate()));
+
+        assertThat(parser.compile().toString(),
+                equalTo("or(scanUntilAny(\"\n*[`\"), takeWhile([^a-e]))"));
+        assertSameResults(parser, "plain text *bold*", "`code`", "a", "", "\u00e9t\u00e9\n");
+    }
+
+    @Test
+    public void scanUntilAnyDelimiter() {
+        Parser parser = scanUntilAny('*', '`', '\u8900');
+
+        assertThat(parser.parse("some text`code").getParsed().get().get(0), equalTo("some text"));
+        assertThat(parser.parse("caf\u00e9\u8900").getParsed().get().get(0), equalTo("caf\u00e9"));
+        assertThat(parser.parse("*").getParsed().isPresent(), equalTo(false));
+        assertThat(parser.parse("no delimiter").getRest().get(), equalTo(""));
+    }
+
+    @Test
+    public void uncollapsedRepeatIsKept() {
+        Parser parser = repeatUntil(anyExcept('*'));
+
+        assertThat(parser.compile().toString(), equalTo("repeatUntil(anyExcept('*'))"));
+        assertSameResults(parser, "ab*", "*");
+    }
+
+    @Test
+    public void redundantMerges() {
+        Parser parser = merge(merge(and(literal('a'), repeatUntil(literal('b')))));
+
+        assertThat(parser.compile().toString(), equalTo("merge(and(literal('a'), repeatUntil(literal('b'))))"));
+        assertThat(merge(takeWhile(CharClass.of("a"))).compile().toString(), equalTo("takeWhile([a])"));
+        assertSameResults(parser, "abbc", "ac", "b");
+    }
+
+    @Test
+    public void mergesAroundPartsThatDontRewindStay() {
+        Parser parser = merge(or(and(repeat(literal('a'), 3)), literal('a')));
+
+        assertThat(parser.compile().toString(), equalTo("merge(or(merge(repeat(literal('a'), 3)), literal('a')))"));
+        assertSameResults(parser, "aab", "aaab", "b");
+        assertSameResults(merge(or(merge(repeat(literal('a'), 3)), literal('a'))), "aab", "aaab", "b");
+    }
+
+    @Test
+    public void sharedMemoStaysShared() {
+        Parser shared = memo(merge(and(literal('a'), literal('b'))));
+        Parser parser = or(and(shared, literal('c')), and(shared, literal('d')));
+        Parser compiled = parser.compile();
+
+        List<Parser> alternatives = compiled.getChildren();
+        assertThat(alternatives.get(0).getChildren().get(0) == alternatives.get(1).getChildren().get(0),
+                equalTo(true));
+        assertSameResults(parser, "abd", "abc", "abe");
+    }
+}
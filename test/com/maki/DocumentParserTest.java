@@ -0,0 +1,95 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class DocumentParserTest {
+
+    private static List<String> blocks(String document) {
+        int[] bounds = DocumentParser.splitBlocks(document);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < bounds.length; i += 2) {
+            result.add(document.substring(bounds[i], bounds[i + 1]));
+        }
+        return result;
+    }
+
+    private static Parser words() {
+        return repeatUntil(or(takeWhile(CharClass.range('a', 'z')), merge(any())));
+    }
+
+    @Test
+    public void splitsAtBlankLines() {
+        List<String> result = blocks("\none\ntwo\n\n  \t\nthree\n\n");
+        assertThat(result.size(), equalTo(2));
+        assertThat(result.get(0), equalTo("one\ntwo"));
+        assertThat(result.get(1), equalTo("three"));
+    }
+
+    @Test
+    public void fencesStayTogether() {
+        List<String> result = blocks("intro\n```\na\n\nb\n~~~\n\nc\n```\n\n~~~\n\n```\n~~~");
+        assertThat(result.size(), equalTo(2));
+        assertThat(result.get(0), equalTo("intro\n```\na\n\nb\n~~~\n\nc\n```"));
+        assertThat(result.get(1), equalTo("~~~\n\n```\n~~~"));
+    }
+
+    @Test
+    public void unclosedFenceRunsToTheEnd() {
+        List<String> result = blocks("a\n\n```\nb\n\n");
+        assertThat(result.size(), equalTo(2));
+        assertThat(result.get(1), equalTo("```\nb\n"));
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        StringBuilder document = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            document.append("block number ").append(i).append("\nsecond line\n\n");
+        }
+        Parser parser = words();
+        List<ParserResult> results = new DocumentParser(parser, new ForkJoinPool(4)).parse(document.toString());
+
+        List<String> expected = blocks(document.toString());
+        assertThat(results.size(), equalTo(2000));
+        for (int i = 0; i < results.size(); i++) {
+            assertThat(results.get(i).getParsed().get(), equalTo(parser.parse(expected.get(i)).getParsed().get()));
+        }
+    }
+
+    @Test
+    public void sharedParserAcrossThreads() throws Exception {
+        Parser parser = memo(words()).compile();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                String text = "thread " + t + " says hi";
+                List<String> expected = parser.parse(text).getParsed().get();
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        if (!parser.parse(text).getParsed().get().equals(expected)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertThat(future.get(), equalTo(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsSame.sameInstance;
+
+public class GrammarSnapshotTest {
+
+    private static Parser inline() {
+        Parser text = takeWhile(CharClass.of("*`[&\n").negate());
+        Parser bold = merge(and(literal('*'), literal('*'), merge(repeatUntil(anyExcept('*'))), literal("**")));
+        Parser emphasis = and(literal('*'), commit(), takeWhile(CharClass.of("*").negate()), literal('*'));
+        Parser code = and(literal('`'), skipUntil(CharClass.of("`")), literal('`'));
+        Parser entity = regex(Pattern.compile("&(#\\d+|[a-z]+);", Pattern.CASE_INSENSITIVE));
+        Parser word = memo(takeWhile(CharClass.range('a', 'z').union(CharClass.range('\u00e0', '\u00ff'))));
+        Parser link = and(literal('['), word, literal(']'));
+        return repeatUntil(or(text, bold, emphasis, code, entity, or(link, and(word, literal('!'))), any()));
+    }
+
+    private static void assertSame(Parser expected, Parser actual, String... inputs) {
+        assertThat(actual.toString(), equalTo(expected.toString()));
+        for (String input : inputs) {
+            assertThat(input, actual.parse(input).getParsed(), equalTo(expected.parse(input).getParsed()));
+            assertThat(input, actual.parseSpans(input).getParsed(), equalTo(expected.parseSpans(input).getParsed()));
+            assertThat(input, actual.firstSet().toString(), equalTo(expected.firstSet().toString()));
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        Parser parser = inline().compile();
+        Parser loaded = GrammarSnapshot.fromBytes(GrammarSnapshot.toBytes(parser));
+
+        assertSame(parser, loaded, "plain *em* and **bold** with `code` &AMP; &#38; [link] caf\u00e9!", "*unclosed",
+                "**", "[x", "", "\u8900");
+    }
+
+    @Test
+    public void streams() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GrammarSnapshot.write(repeat(charIn("ab"), 3), out);
+        Parser loaded = GrammarSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+        assertSame(repeat(charIn("ab"), 3), loaded, "abab", "ab");
+    }
+
+    @Test
+    public void sharedNodesStayShared() throws IOException {
+        Parser word = memo(takeWhile(CharClass.range('a', 'z')));
+        Parser parser = or(and(word, literal('!')), and(word, literal('?')));
+        Parser loaded = GrammarSnapshot.fromBytes(GrammarSnapshot.toBytes(parser));
+
+        Parser first = loaded.getChildren().get(0).getChildren().get(0);
+        Parser second = loaded.getChildren().get(1).getChildren().get(0);
+        assertThat(first.getKind(), equalTo(Kind.MEMO));
+        assertThat(first, sameInstance(second));
+    }
+
+    @Test
+    public void deepGrammar() throws IOException {
+        Parser parser = literal('a');
+        for (int i = 0; i < 100000; i++) {
+            parser = merge(parser);
+        }
+        Parser loaded = GrammarSnapshot.fromBytes(GrammarSnapshot.toBytes(parser));
+        assertThat(loaded.interpret("a").getParsed(), equalTo(parser.interpret("a").getParsed()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void chainIsRefused() {
+        GrammarSnapshot.toBytes(and(literal('a'), literal('b').chain(result -> literal('c'))));
+    }
+
+    @Test(expected = IOException.class)
+    public void garbageIsRefused() throws IOException {
+        GrammarSnapshot.fromBytes(new byte[]{1, 2, 3, 4, 5, 6});
+    }
+}
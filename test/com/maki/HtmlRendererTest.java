@@ -0,0 +1,77 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class HtmlRendererTest {
+
+    private static String render(String source) {
+        StringBuilder out = new StringBuilder();
+        new HtmlRenderer().render(source, out);
+        return out.toString();
+    }
+
+    @Test
+    public void inlineMarkup() {
+        assertThat(render("some **bold**, *em* and `a < b` with [a *link*](http://x.y/?a=1&b=2)"),
+                equalTo("<p>some <strong>bold</strong>, <em>em</em> and <code>a &lt; b</code> with "
+                        + "<a href=\"http://x.y/?a=1&amp;b=2\">a <em>link</em></a></p>\n"));
+    }
+
+    @Test
+    public void unmatchedMarkupIsText() {
+        assertThat(render("2 * 3 and [not a link] & \"quotes\" *"),
+                equalTo("<p>2 * 3 and [not a link] &amp; &quot;quotes&quot; *</p>\n"));
+    }
+
+    @Test
+    public void headingsAndParagraphs() {
+        assertThat(render("# Title\nfirst line\nsecond line\n\n###### Small *one*\n\n####### too deep"),
+                equalTo("<h1>Title</h1>\n<p>first line\nsecond line</p>\n<h6>Small <em>one</em></h6>\n"
+                        + "<p>####### too deep</p>\n"));
+    }
+
+    @Test
+    public void lists() {
+        assertThat(render("- one\n- **two**\n  more of two\n\n1. first\n2. second\n# After"),
+                equalTo("<ul>\n<li>one</li>\n<li><strong>two</strong>\n  more of two</li>\n</ul>\n"
+                        + "<ol>\n<li>first</li>\n<li>second</li>\n</ol>\n<h1>After</h1>\n"));
+    }
+
+    @Test
+    public void fencedCode() {
+        assertThat(render("before\n```java\nif (a < b) {\n\n  *not em*\n}\n```\nafter"),
+                equalTo("<p>before</p>\n<pre><code class=\"language-java\">if (a &lt; b) {\n\n  *not em*\n}\n"
+                        + "</code></pre>\n<p>after</p>\n"));
+        assertThat(render("~~~\nopen\n"), equalTo("<pre><code>open\n</code></pre>\n"));
+    }
+
+    @Test
+    public void rendererIsReusable() {
+        HtmlRenderer renderer = new HtmlRenderer();
+        StringBuilder out = new StringBuilder();
+        renderer.render("*one*", out);
+        renderer.render("two", out);
+        assertThat(out.toString(), equalTo("<p><em>one</em></p>\n<p>two</p>\n"));
+    }
+
+    @Test
+    public void utf8Output() {
+        String source = "caf\u00e9 **\u2603**\n\n- \ud83d\ude00";
+        ByteBuffer out = ByteBuffer.allocate(256);
+        new HtmlRenderer().render(source, out);
+        out.flip();
+        assertThat(StandardCharsets.UTF_8.decode(out).toString(), equalTo(render(source)));
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void overflowThrows() {
+        new HtmlRenderer().render("a paragraph that is too long", ByteBuffer.allocate(8));
+    }
+}
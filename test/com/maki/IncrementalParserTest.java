@@ -0,0 +1,91 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class IncrementalParserTest {
+
+    private static Parser item() {
+        Parser emphasis = merge(and(literal('*'), repeatUntil(anyExcept('*')), literal('*')));
+        return or(emphasis, takeWhile(CharClass.range('a', 'z')), merge(and(literal('\n'), literal('\n'))), any());
+    }
+
+    private static void assertSameAsFullParse(IncrementalResult result) {
+        IncrementalResult expected = new IncrementalParser(item()).parse(result.getText());
+        assertThat(result.size(), equalTo(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(result.start(i), equalTo(expected.start(i)));
+            assertThat(result.end(i), equalTo(expected.end(i)));
+            assertThat(result.extent(i), equalTo(expected.extent(i)));
+            assertThat(result.getItem(i), equalTo(expected.getItem(i)));
+        }
+        assertThat(result.getRest(), equalTo(expected.getRest()));
+        assertThat(result.getParsed(), equalTo(repeatUntil(item()).parse(result.getText()).getParsed()));
+    }
+
+    @Test
+    public void parsesLikeRepeatUntil() {
+        IncrementalResult result = new IncrementalParser(item()).parse("some *bold* text\n\nmore");
+        assertThat(result.getParsed(), equalTo(repeatUntil(item()).parse("some *bold* text\n\nmore").getParsed()));
+        assertThat(result.getItem(2), equalTo(Arrays.asList("*bold*")));
+        assertThat(result.getRest(), equalTo(""));
+    }
+
+    @Test
+    public void smallEditsReparseLittle() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("paragraph number *").append(i % 10).append("* here\n\n");
+        }
+        IncrementalParser parser = new IncrementalParser(item());
+        IncrementalResult result = parser.parse(text.toString());
+
+        int offset = text.length() / 2;
+        IncrementalResult edited = parser.reparse(result, offset, 3, "typed words");
+        assertSameAsFullParse(edited);
+        assertThat(edited.getReparsed() < 10, equalTo(true));
+
+        IncrementalResult appended = parser.reparse(edited, edited.getText().length(), 0, "tail");
+        assertSameAsFullParse(appended);
+        assertThat(appended.getReparsed() < 5, equalTo(true));
+    }
+
+    @Test
+    public void editsThatChangeLookahead() {
+        IncrementalParser parser = new IncrementalParser(item());
+        IncrementalResult result = parser.parse("a *b c d e");
+
+        //Closing the emphasis changes how the * at 2 parses, even though the edit is far from it
+        IncrementalResult closed = parser.reparse(result, 10, 0, "*");
+        assertSameAsFullParse(closed);
+        assertThat(closed.getItem(2), equalTo(Arrays.asList("*b c d e*")));
+
+        IncrementalResult opened = parser.reparse(closed, 10, 1, "");
+        assertSameAsFullParse(opened);
+    }
+
+    @Test
+    public void randomEdits() {
+        Random random = new Random(7);
+        String alphabet = "ab *\n";
+        IncrementalParser parser = new IncrementalParser(item());
+        IncrementalResult result = parser.parse("start *here* and\n\nthen some more text");
+        for (int i = 0; i < 2000; i++) {
+            int length = result.getText().length();
+            int offset = random.nextInt(length + 1);
+            int removed = random.nextInt(Math.min(4, length - offset) + 1);
+            StringBuilder inserted = new StringBuilder();
+            for (int j = random.nextInt(4); j > 0; j--) {
+                inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            result = parser.reparse(result, offset, removed, inserted.toString());
+            assertSameAsFullParse(result);
+        }
+    }
+}
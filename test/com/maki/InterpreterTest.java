@@ -0,0 +1,75 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class InterpreterTest {
+
+    private static void assertSameResults(Parser parser, String input) {
+        SpanResult expected = parser.parseSpans(input);
+        SpanResult actual = parser.interpret(input);
+        assertThat(actual.isMatched(), equalTo(expected.isMatched()));
+        assertThat(actual.getParsed(), equalTo(expected.getParsed()));
+        assertThat(actual.getRest(), equalTo(expected.getRest()));
+    }
+
+    @Test
+    public void matchesParseSpans() {
+        Parser emphasis = and(literal('*'), repeatUntil(anyExcept('*')), literal('*'));
+        Parser parser = repeatUntil(or(emphasis, merge(repeat(literal('-'), 2)), memo(takeWhile(CharClass.range('a',
+                'z'))), any()));
+
+        for (String input : Arrays.asList("", "abc", "*em* and *unclosed", "--- -x", "*a*b*c*", "\u00e9t\u00e9 *\u00e9*")) {
+            assertSameResults(parser, input);
+            assertSameResults(parser.compile(), input);
+        }
+        assertSameResults(and(literal('a'), literal('b')), "ac");
+        assertSameResults(repeat(literal('a'), 3), "aab");
+        assertSameResults(fail(), "a");
+    }
+
+    @Test
+    public void chain() {
+        Parser parser = repeatUntil(any().chain(result -> literal(result.get(0).charAt(0))));
+        assertSameResults(parser, "aabbcd");
+        assertSameResults(parser, "ab");
+    }
+
+    @Test
+    public void deepNesting() {
+        Parser parser = literal('a');
+        for (int i = 0; i < 100000; i++) {
+            parser = merge(parser);
+        }
+        SpanResult result = parser.interpret("ab");
+        assertThat(result.isMatched(), equalTo(true));
+        assertThat(result.getString(0), equalTo("a"));
+    }
+
+    @Test
+    public void deepChainRecursion() {
+        Parser[] nested = new Parser[1];
+        nested[0] = literal('(').chain(result -> or(literal(')'), and(nested[0], literal(')'))));
+
+        int depth = 100000;
+        char[] chars = new char[depth * 2];
+        Arrays.fill(chars, 0, depth, '(');
+        Arrays.fill(chars, depth, chars.length, ')');
+        SpanResult result = nested[0].interpret(new String(chars) + "x");
+        assertThat(result.isMatched(), equalTo(true));
+        assertThat(result.getRest().get().toString(), equalTo("x"));
+    }
+
+    @Test
+    public void longRepeat() {
+        char[] chars = new char[1000000];
+        Arrays.fill(chars, 'a');
+        SpanResult result = repeatUntil(or(literal('b'), literal('a'))).interpret(new String(chars));
+        assertThat(result.size(), equalTo(chars.length));
+    }
+}
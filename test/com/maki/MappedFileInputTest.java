@@ -0,0 +1,77 @@
+package com.maki;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+
+public class MappedFileInputTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String contents) throws IOException {
+        Path path = folder.newFile().toPath();
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Test
+    public void parseFile() throws IOException {
+        Parser parser = and(literal('a'), merge(repeatUntil(anyExcept('*'))), literal('*'));
+        ParserResult result = parser.parse(write("abcd*rest"));
+        List<String> resultList = result.getParsed().get();
+
+        assertThat(resultList.size(), equalTo(3));
+        assertThat(resultList.get(1), equalTo("bcd"));
+        assertThat(result.getRest().get().toString(), equalTo("rest"));
+    }
+
+    @Test
+    public void multiByteChars() throws IOException {
+        Parser parser = and(literal('\u8900'), any(), any(), literal('x'));
+        ParserResult result = parser.parse(write("\u8900\ud83d\ude00x"));
+        List<String> resultList = result.getParsed().get();
+
+        assertThat(resultList.get(0), equalTo("\u8900"));
+        assertThat(resultList.get(1) + resultList.get(2), equalTo("\ud83d\ude00"));
+        assertThat(resultList.get(3), equalTo("x"));
+    }
+
+    @Test
+    public void restIsLazyView() throws IOException {
+        ParserResult result = literal('\u00e9').parse(write("\u00e9t\u00e9 \u8900"));
+        Object rest = result.getRest().get();
+
+        assertThat(rest, instanceOf(CharSequence.class));
+        CharSequence view = (CharSequence) rest;
+        assertThat(view.length(), equalTo(4));
+        assertThat(view.charAt(1), equalTo('\u00e9'));
+        assertThat(view.charAt(3), equalTo('\u8900'));
+        assertThat(view.subSequence(1, 3).toString(), equalTo("\u00e9 "));
+        assertThat(view.toString(), equalTo("t\u00e9 \u8900"));
+    }
+
+    @Test
+    public void spansAreByteOffsets() throws IOException {
+        SpanResult result = and(any(), literal('b')).parseSpans(write("\u00e9b"), new SpanBuffer());
+
+        assertThat(result.end(0), equalTo(2));
+        assertThat(result.getString(0), equalTo("\u00e9"));
+        assertThat(result.getString(1), equalTo("b"));
+    }
+
+    @Test
+    public void emptyFile() throws IOException {
+        assertThat(any().parse(write("")).getParsed().isPresent(), equalTo(false));
+    }
+}
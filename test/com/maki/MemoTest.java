@@ -0,0 +1,81 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class MemoTest {
+
+    @Test
+    public void alternativesShareWork() {
+        int[] calls = {0};
+        Parser ab = memo(literal('a').chain(result -> {
+            calls[0]++;
+            return literal('b');
+        }));
+        Parser parser = or(and(ab, literal('c')), and(ab, literal('d')));
+
+        List<String> resultList = parser.parse("abd").getParsed().get();
+        assertThat(resultList.size(), equalTo(2));
+        assertThat(resultList.get(0), equalTo("b"));
+        assertThat(resultList.get(1), equalTo("d"));
+        assertThat(calls[0], equalTo(1));
+
+        //The table is thrown away after each parse
+        SpanResult spans = parser.parseSpans("abd");
+        assertThat(spans.getString(1), equalTo("d"));
+        assertThat(calls[0], equalTo(2));
+    }
+
+    @Test
+    public void failuresAreRemembered() {
+        int[] calls = {0};
+        Parser abz = memo(and(literal('a').chain(result -> {
+            calls[0]++;
+            return literal('b');
+        }), literal('z')));
+        Parser parser = or(and(abz, literal('c')), or(abz, literal('a')));
+
+        assertThat(parser.parse("abx").getParsed().get().get(0), equalTo("a"));
+        assertThat(calls[0], equalTo(1));
+    }
+
+    @Test
+    public void manyPositions() {
+        char[] chars = new char[500];
+        Arrays.fill(chars, 'a');
+        Parser letters = repeatUntil(memo(any()));
+        Parser parser = or(and(letters, literal('x')), letters);
+
+        ParserResult result = parser.parse(new ReaderInput(new StringReader(new String(chars))));
+        assertThat(result.getParsed().get().size(), equalTo(chars.length));
+
+        SpanResult spans = parser.parseSpans(new ReaderInput(new StringReader(new String(chars))), new SpanBuffer());
+        assertThat(spans.size(), equalTo(chars.length));
+        assertThat(spans.start(499), equalTo(499));
+    }
+
+    @Test
+    public void clearedTableForgetsOnlyWhatItHad() {
+        MemoTable table = new MemoTable();
+        for (int i = 0; i < 10000; i++) {
+            table.putList(1, i, i + 1, null);
+        }
+        table.clear();
+        for (int round = 0; round < 3; round++) {
+            table.putList(2, round, round + 1, Arrays.asList("x"));
+            assertThat(table.findList(1, 5), equalTo(-1));
+            assertThat(table.list(table.findList(2, round)), equalTo(Arrays.asList("x")));
+            table.clear();
+            assertThat(table.findList(2, round), equalTo(-1));
+        }
+        //Still big, the arrays are kept
+        assertThat(table.capacity() >= 20000, equalTo(true));
+    }
+}
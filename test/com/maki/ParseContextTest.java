@@ -0,0 +1,91 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class ParseContextTest {
+
+    private static Parser emphasis() {
+        return and(literal('*'), takeWhile(CharClass.of("*").negate()), literal('*'));
+    }
+
+    @Test
+    public void sameResultsAsParser() {
+        Parser parser = repeatUntil(or(emphasis(), takeWhile(CharClass.of("*").negate())));
+        ParseContext context = new ParseContext();
+        for (String text : new String[]{"a *b* c", "*x*", "", "plain", "**"}) {
+            assertThat(text, context.parseSpans(parser, text).getParsed(), equalTo(parser.parseSpans(text).getParsed()));
+            assertThat(text, context.interpret(parser, text).getParsed(), equalTo(parser.parseSpans(text).getParsed()));
+            assertThat(text, context.parse(parser, text).getParsed(), equalTo(parser.parse(text).getParsed()));
+        }
+    }
+
+    @Test
+    public void partOfAString() {
+        ParseContext context = new ParseContext();
+        SpanResult result = context.parseSpans(emphasis(), "ab*cd*ef", 2, 6);
+        assertThat(result.isMatched(), equalTo(true));
+        assertThat(result.start(1), equalTo(3));
+        assertThat(result.getString(1), equalTo("cd"));
+        assertThat(context.getIndex(), equalTo(6));
+    }
+
+    @Test
+    public void memoTableIsClearedBetweenParses() {
+        Parser word = memo(takeWhile(CharClass.range('a', 'z')));
+        Parser parser = or(and(word, literal('!')), and(word, literal('?')));
+        ParseContext context = new ParseContext();
+        assertThat(context.parseSpans(parser, "hello?").getString(0), equalTo("hello"));
+        //Same positions, different text. A stale memo entry would end the word at 5
+        assertThat(context.parseSpans(parser, "hi?").getString(0), equalTo("hi"));
+        assertThat(context.parseSpans(parser, "hi.").isMatched(), equalTo(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void nestedUseIsCaught() {
+        ParseContext context = new ParseContext();
+        Parser inner = literal('b');
+        Parser parser = literal('a').chain(result -> {
+            context.parseSpans(inner, "b");
+            return inner;
+        });
+        context.parseSpans(parser, "ab");
+    }
+
+    @Test
+    public void onePerThread() throws Exception {
+        Parser parser = repeatUntil(or(emphasis(), takeWhile(CharClass.of("*").negate())));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int task = t;
+                futures.add(executor.submit(() -> {
+                    ParseContext context = ParseContext.current();
+                    for (int i = 0; i < 1000; i++) {
+                        String text = "task " + task + " *item " + i + "*";
+                        SpanResult result = context.parseSpans(parser, text);
+                        if (!result.getString(result.size() - 2).equals("item " + i)) {
+                            return false;
+                        }
+                    }
+                    return ParseContext.current() == context;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertThat(future.get(), equalTo(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class ParseListenerTest {
+
+    @Test
+    public void tracedParsesTheSame() {
+        Parser parser = repeatUntil(or(and(literal('a'), literal('b')), literal('a'), any()));
+        Parser traced = parser.traced(new ParseMetrics());
+
+        String input = "abaxab";
+        assertThat(traced.parse(input).getParsed(), equalTo(parser.parse(input).getParsed()));
+        assertThat(traced.parseSpans(input).getParsed(), equalTo(parser.parseSpans(input).getParsed()));
+        assertThat(traced.toString(), equalTo(parser.toString()));
+    }
+
+    @Test
+    public void enterAndExitPair() {
+        List<String> events = new ArrayList<>();
+        Parser parser = and(literal('a'), literal('b'));
+        parser.traced(new ParseListener() {
+            @Override
+            public void onEnter(Parser node, int index) {
+                events.add("enter " + node + " " + index);
+            }
+
+            @Override
+            public void onExit(Parser node, int start, int end, boolean matched) {
+                events.add("exit " + node + " " + start + "-" + end + " " + matched);
+            }
+        }).parse("ab");
+
+        assertThat(events.size(), equalTo(6));
+        assertThat(events.get(0), equalTo("enter and(literal('a'), literal('b')) 0"));
+        assertThat(events.get(1), equalTo("enter literal('a') 0"));
+        assertThat(events.get(2), equalTo("exit literal('a') 0-1 true"));
+        assertThat(events.get(5), equalTo("exit and(literal('a'), literal('b')) 0-2 true"));
+    }
+
+    @Test
+    public void cutNodesStillExit() {
+        List<String> events = new ArrayList<>();
+        Parser parser = or(and(literal('a'), commit(), literal('b')), literal('a')).traced(new ParseListener() {
+            @Override
+            public void onEnter(Parser node, int index) {
+                events.add("enter " + node.getKind());
+            }
+
+            @Override
+            public void onExit(Parser node, int start, int end, boolean matched) {
+                events.add("exit " + node.getKind() + " " + matched);
+            }
+        });
+
+        assertThat(parser.parse("ac").getParsed().isPresent(), equalTo(false));
+        assertThat(events.get(events.size() - 2), equalTo("exit AND false"));
+        assertThat(events.get(events.size() - 1), equalTo("exit OR false"));
+        assertThat(events.stream().filter(event -> event.startsWith("enter")).count(),
+                equalTo(events.stream().filter(event -> event.startsWith("exit")).count()));
+
+        events.clear();
+        assertThat(parser.parseSpans("ac").isMatched(), equalTo(false));
+        assertThat(events.get(events.size() - 1), equalTo("exit OR false"));
+        assertThat(events.stream().filter(event -> event.startsWith("enter")).count(),
+                equalTo(events.stream().filter(event -> event.startsWith("exit")).count()));
+    }
+
+    @Test
+    public void metricsCount() {
+        ParseMetrics metrics = new ParseMetrics();
+        Parser parser = or(and(literal('a'), literal('b')), literal('a')).traced(metrics);
+
+        assertThat(parser.parse("ac").getParsed().get().get(0), equalTo("a"));
+        assertThat(parser.parseSpans("x").isMatched(), equalTo(false));
+
+        assertThat(metrics.getParses(), equalTo(2L));
+        assertThat(metrics.getFailedParses(), equalTo(1L));
+        assertThat(metrics.getCharsConsumed(), equalTo(1L));
+        assertThat(metrics.getBacktracks(), equalTo(1L));
+        assertThat(metrics.getCharsBacktracked(), equalTo(1L));
+        assertThat(metrics.getInvocations(Kind.OR), equalTo(2L));
+        assertThat(metrics.getFailures(Kind.OR), equalTo(1L));
+        assertThat(metrics.getInvocations(Kind.AND), equalTo(1L));
+        assertThat(metrics.getFailures(Kind.AND), equalTo(1L));
+        //'x' isn't in the first set of either alternative, so neither literal runs for it
+        assertThat(metrics.getInvocations(Kind.LITERAL), equalTo(3L));
+        assertThat(metrics.snapshot().get("invocations.or"), equalTo(2L));
+
+        metrics.reset();
+        assertThat(metrics.getParses(), equalTo(0L));
+    }
+}
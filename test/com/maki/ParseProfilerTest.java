@@ -0,0 +1,109 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class ParseProfilerTest {
+
+    @Test
+    public void countsEveryNode() {
+        Parser ab = and(literal('a'), literal('b'));
+        Parser a = literal('a');
+        Parser or = or(ab, a);
+        ParseProfiler profiler = new ParseProfiler();
+        Parser traced = or.traced(profiler);
+
+        assertThat(traced.parse("ac").getParsed().get().get(0), equalTo("a"));
+        assertThat(traced.parse("ab").getParsed().get(), equalTo(Arrays.asList("a", "b")));
+
+        assertThat(profiler.getProfile(or).getInvocations(), equalTo(2L));
+        assertThat(profiler.getProfile(or).getCharsConsumed(), equalTo(3L));
+        assertThat(profiler.getProfile(ab).getInvocations(), equalTo(2L));
+        assertThat(profiler.getProfile(ab).getFailures(), equalTo(1L));
+        //The and read 'a' and then rewound it when 'c' wasn't 'b'
+        assertThat(profiler.getProfile(ab).getCharsRewound() + profiler.getProfile(or).getCharsRewound(),
+                equalTo(1L));
+        assertThat(profiler.getProfile(a).getInvocations(), equalTo(1L));
+        assertThat(profiler.getProfile(a).getFailures(), equalTo(0L));
+
+        ParseProfiler.NodeProfile top = profiler.getProfile(or);
+        assertThat(top.getNanos() >= top.getSelfNanos(), equalTo(true));
+        assertThat(top.getLabel().startsWith("#1 or("), equalTo(true));
+    }
+
+    @Test
+    public void reportListsNodesBySelfTime() {
+        ParseProfiler profiler = new ParseProfiler();
+        Parser parser = repeatUntil(or(and(literal('a'), literal('b')), literal('a'), any())).traced(profiler);
+        parser.parse("abaxab;");
+
+        List<ParseProfiler.NodeProfile> profiles = profiler.getProfiles();
+        for (int i = 1; i < profiles.size(); i++) {
+            assertThat(profiles.get(i - 1).getSelfNanos() >= profiles.get(i).getSelfNanos(), equalTo(true));
+        }
+        String[] lines = profiler.report().split("\n");
+        assertThat(lines.length, equalTo(profiles.size() + 1));
+        assertThat(lines[0].trim().startsWith("self ms"), equalTo(true));
+        assertThat(lines[1].endsWith(profiles.get(0).getLabel()), equalTo(true));
+    }
+
+    @Test
+    public void collapsedStacksFollowTheGrammar() {
+        ParseProfiler profiler = new ParseProfiler();
+        Parser parser = repeatUntil(or(and(literal('a'), literal('b')), literal(';'))).traced(profiler);
+        parser.parse("ab;ab");
+
+        long total = 0;
+        boolean sawLeaf = false;
+        for (String line : profiler.collapsedStacks().split("\n")) {
+            int space = line.lastIndexOf(' ');
+            String[] frames = line.substring(0, space).split(";");
+            total += Long.parseLong(line.substring(space + 1));
+            assertThat(frames[0].startsWith("#1 repeatUntil("), equalTo(true));
+            if (frames.length == 4) {
+                assertThat(frames[3].contains("literal("), equalTo(true));
+                sawLeaf = true;
+            }
+            //literal(';') is a frame, its semicolon isn't a separator
+            for (String frame : frames) {
+                assertThat(frame.startsWith("#"), equalTo(true));
+            }
+        }
+        assertThat(sawLeaf, equalTo(true));
+        //Self times add up to the time of the outermost node
+        assertThat(total, equalTo(profiler.getProfiles().stream()
+                .filter(profile -> profile.getId() == 1).findFirst().get().getNanos()));
+    }
+
+    @Test
+    public void parsesStartAtTheTop() {
+        ParseProfiler profiler = new ParseProfiler();
+        Parser stale = literal('x');
+        Parser parser = and(literal('a'), literal('b'));
+        //As if a parse had thrown with a node still running
+        profiler.onEnter(stale, 0);
+        parser.traced(profiler).parse("ab");
+
+        for (String line : profiler.collapsedStacks().split("\n")) {
+            assertThat(line, line.startsWith(profiler.getProfile(parser).getLabel()), equalTo(true));
+        }
+        assertThat(profiler.getProfile(stale).getInvocations(), equalTo(0L));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        ParseProfiler profiler = new ParseProfiler();
+        Parser parser = literal('a');
+        parser.traced(profiler).parse("a");
+        assertThat(profiler.getProfile(parser).getInvocations(), equalTo(1L));
+        profiler.reset();
+        assertThat(profiler.getProfiles().isEmpty(), equalTo(true));
+        assertThat(profiler.collapsedStacks(), equalTo(""));
+    }
+}
@@ -245,6 +245,107 @@ public class ParserTest {
 
 
 
+    @Test
+    public void testCharIn() {
+        Parser parser = repeatUntil(charIn("*_"));
+        List<String> resultList = parser.parse("_*a").getParsed().get();
+
+        assertThat(resultList.size(), equalTo(2));
+        assertThat(resultList.get(0), equalTo("_"));
+        assertThat(resultList.get(1), equalTo("*"));
+    }
+
+    @Test
+    public void testRange() {
+        Parser parser = range('0', '9');
+
+        assertThat(parser.parse("7a").getParsed().get().get(0), equalTo("7"));
+        assertThat(parser.parse("a7").getParsed().isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void testNoneOf() {
+        Parser parser = noneOf("*`");
+
+        assertThat(parser.parse("\u8900").getParsed().get().get(0), equalTo("\u8900"));
+        assertThat(parser.parse("`a").getParsed().isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void testTakeWhile() {
+        Parser parser = and(takeWhile(CharClass.of("*`").negate()), literal('*'));
+        ParserResult result = parser.parse("a long run of plain prose that is longer than twenty five chars*rest");
+        List<String> resultList = result.getParsed().get();
+
+        assertThat(resultList.size(), equalTo(2));
+        assertThat(resultList.get(0), equalTo("a long run of plain prose that is longer than twenty five chars"));
+        assertThat(result.getRest().get(), equalTo("rest"));
+    }
+
+    @Test
+    public void testTakeWhileFail() {
+        Parser parser = takeWhile(CharClass.range('a', 'z'));
+
+        assertThat(parser.parse("Abc").getParsed().isPresent(), equalTo(false));
+        assertThat(parser.parse("").getParsed().isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void testSkipUntil() {
+        Parser parser = skipUntil(CharClass.of("`"));
+
+        assertThat(parser.parse("ab`c").getParsed().get().get(0), equalTo("ab"));
+        assertThat(parser.parse("`c").getParsed().get().get(0), equalTo(""));
+        assertThat(parser.parseSpans("abc").end(0), equalTo(3));
+    }
+
+    @Test
+    public void testFirstSet() {
+        CharClass first = or(and(literal('*'), any()), range('0', '9')).firstSet().get();
+
+        assertThat(first.contains('*'), equalTo(true));
+        assertThat(first.contains('5'), equalTo(true));
+        assertThat(first.contains('a'), equalTo(false));
+        assertThat(or(literal('a'), skipUntil(CharClass.of("*"))).firstSet().isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void testOrManyAlternatives() {
+        Parser parser = or(merge(and(literal('*'), literal('*'))), literal('*'), literal('`'), literal('\u8900'),
+                skipUntil(CharClass.of("*`")));
+
+        assertThat(parser.parse("**").getParsed().get().get(0), equalTo("**"));
+        assertThat(parser.parse("*a").getParsed().get().get(0), equalTo("*"));
+        assertThat(parser.parse("`").getParsed().get().get(0), equalTo("`"));
+        assertThat(parser.parse("\u8900").getParsed().get().get(0), equalTo("\u8900"));
+        assertThat(parser.parse("\u8901*").getParsed().get().get(0), equalTo("\u8901"));
+        assertThat(parser.parse("ab*").getParsed().get().get(0), equalTo("ab"));
+        assertThat(parser.parse("").getParsed().get().get(0), equalTo(""));
+        assertThat(parser.parseSpans("ab*").getString(0), equalTo("ab"));
+    }
+
+    @Test
+    public void testOrAfterConsumingFailure() {
+        //repeat doesn't rewind when it fails, so the second alternative runs after the 'a'
+        Parser parser = or(repeat(literal('a'), 2), literal('b'));
+        ParserResult result = parser.parse("ab");
+
+        assertThat(result.getParsed().get().get(0), equalTo("b"));
+    }
+
+    @Test
+    public void testMergeJoinsResults() {
+        Parser parser = merge(and(literal('a'), takeWhile(CharClass.of("bc")), literal('d')));
+        assertThat(parser.parse("abcbde").getParsed().get().get(0), equalTo("abcbd"));
+
+        //The failed repeat consumed an 'a' that isn't in the results, so the merge has to keep the results
+        parser = merge(or(repeat(literal('a'), 2), literal('b')));
+        assertThat(parser.parse("ab").getParsed().get().get(0), equalTo("b"));
+
+        parser = merge(and(any().chain(result -> literal('x')), literal('y')));
+        assertThat(parser.parse("qxy").getParsed().get().get(0), equalTo("xy"));
+    }
+
     @Test
     public void testRealParsing() {
 //        Parser parseUntilStar = repeatUntil(anyExcept('*'), Parser::repeatUntilFail);
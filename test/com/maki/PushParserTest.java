@@ -0,0 +1,129 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class PushParserTest {
+
+    /**
+     * Tokens that need to see past a chunk boundary to be sure: a word can go on, "*" can be half of "**", and "<!"
+     * can be the start of a comment
+     */
+    private static Parser item() {
+        Parser comment = merge(and(literal("<!--"), scanUntilAny('>'), literal('>')));
+        return or(comment, literal("**"), literal('*'), takeWhile(CharClass.range('a', 'z')),
+                takeWhile(CharClass.of(" \n")), any());
+    }
+
+    private static List<String> flatten(List<List<String>> items) {
+        List<String> flat = new ArrayList<>();
+        items.forEach(flat::addAll);
+        return flat;
+    }
+
+    @Test
+    public void parsesLikeRepeatUntil() {
+        String text = "some **bold** <!-- note --> and *em* text\n\nmore <!-- caf\u00e9 --> <!- <b> end*";
+        Random random = new Random(7);
+        for (int round = 0; round < 50; round++) {
+            List<List<String>> items = new ArrayList<>();
+            PushParser parser = new PushParser(item(), items::add);
+            int position = 0;
+            while (position < text.length()) {
+                int end = Math.min(text.length(), position + 1 + random.nextInt(6));
+                parser.feed(CharBuffer.wrap(text, position, end));
+                position = end;
+            }
+            parser.finish();
+            assertThat(flatten(items), equalTo(repeatUntil(item()).parse(text).getParsed().get()));
+            assertThat(parser.getRest(), equalTo(""));
+        }
+    }
+
+    @Test
+    public void emitsItemsOnceTheyAreFinal() {
+        List<List<String>> items = new ArrayList<>();
+        PushParser parser = new PushParser(item(), items::add);
+        //"some" could still grow
+        assertThat(parser.feed("some"), equalTo(0));
+        //So could "*", into "**"
+        assertThat(parser.feed(" *"), equalTo(2));
+        assertThat(parser.feed("*bold"), equalTo(1));
+        assertThat(items.get(2), equalTo(Arrays.asList("**")));
+        //"<!" could be a comment
+        assertThat(parser.feed("** <!"), equalTo(3));
+        assertThat(parser.feed("-- x -->"), equalTo(1));
+        assertThat(items.get(6), equalTo(Arrays.asList("<!-- x -->")));
+        assertThat(parser.feed(" *"), equalTo(1));
+        assertThat(parser.finish(), equalTo(1));
+        assertThat(items.get(8), equalTo(Arrays.asList("*")));
+    }
+
+    @Test
+    public void decodesSequencesSplitAcrossChunks() {
+        String text = "na\u00efve **\u65e5\u672c** <!-- \ud83d\ude00 --> end";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        List<List<String>> items = new ArrayList<>();
+        PushParser parser = new PushParser(item(), items::add);
+        for (byte b : bytes) {
+            ByteBuffer chunk = ByteBuffer.wrap(new byte[]{b});
+            parser.feed(chunk);
+            assertThat(chunk.hasRemaining(), equalTo(false));
+        }
+        parser.finish();
+        assertThat(flatten(items), equalTo(repeatUntil(item()).parse(text).getParsed().get()));
+    }
+
+    @Test
+    public void stopsWhereAnItemFails() {
+        List<List<String>> items = new ArrayList<>();
+        PushParser parser = new PushParser(takeWhile(CharClass.range('a', 'z')), items::add);
+        parser.feed("abc");
+        parser.feed("12");
+        assertThat(parser.isStopped(), equalTo(true));
+        //Dropped, the document already ended
+        assertThat(parser.feed("de"), equalTo(0));
+        ByteBuffer bytes = ByteBuffer.wrap("fg".getBytes(StandardCharsets.UTF_8));
+        assertThat(parser.feed(bytes), equalTo(0));
+        assertThat(bytes.hasRemaining(), equalTo(false));
+        parser.finish();
+        assertThat(items, equalTo(Arrays.asList(Arrays.asList("abc"))));
+        assertThat(parser.getRest(), equalTo("12"));
+        assertThat(parser.getRestStart(), equalTo(3));
+    }
+
+    @Test
+    public void longItemsAreRetriedWhenTheyDouble() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        text.append(" tail");
+        List<List<String>> items = new ArrayList<>();
+        PushParser parser = new PushParser(item(), items::add);
+        for (int i = 0; i < text.length(); i += 10) {
+            parser.feed(text.subSequence(i, Math.min(text.length(), i + 10)));
+        }
+        parser.finish();
+        assertThat(flatten(items), equalTo(repeatUntil(item()).parse(text.toString()).getParsed().get()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noFeedingAfterFinish() {
+        PushParser parser = new PushParser(item(), items -> {
+        });
+        parser.finish();
+        parser.feed("more");
+    }
+}
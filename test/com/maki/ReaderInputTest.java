@@ -0,0 +1,121 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class ReaderInputTest {
+
+    @Test
+    public void parseReader() {
+        Parser parser = and(literal('a'), merge(repeatUntil(anyExcept('*'))), literal('*'));
+        ParserResult result = parser.parse(new StringReader("abcd*rest"));
+        List<String> resultList = result.getParsed().get();
+
+        assertThat(resultList.size(), equalTo(3));
+        assertThat(resultList.get(1), equalTo("bcd"));
+        assertThat(result.getRest().get(), equalTo("rest"));
+    }
+
+    @Test
+    public void backtrackAcrossWindows() {
+        Parser parser = or(
+                and(literal('a'), literal('b'), literal('c'), literal('d'), literal('e'), literal('f'), literal('g'),
+                        literal('h')),
+                merge(repeat(any(), 7)));
+        ParserResult result = parser.parse(new ReaderInput(new StringReader("abcdefgX"), 2));
+
+        assertThat(result.getParsed().get().get(0), equalTo("abcdefg"));
+        assertThat(result.getRest().get(), equalTo("X"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rewindPastWindow() {
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'a');
+        ReaderInput input = new ReaderInput(new StringReader(new String(chars)), 4);
+        while (input.hasNext()) {
+            input.advance();
+        }
+        input.setIndex(0);
+    }
+
+    @Test
+    public void markKeepsWindow() {
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'a');
+        ReaderInput input = new ReaderInput(new StringReader(new String(chars)), 4);
+        input.hasNext();
+        int mark = input.mark();
+        while (input.hasNext()) {
+            input.advance();
+        }
+        input.setIndex(0);
+        assertThat(input.slice(0, 3).toString(), equalTo("aaa"));
+        input.release(mark);
+    }
+
+    @Test
+    public void longInputInSmallWindow() {
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'a');
+        chars[chars.length - 1] = '*';
+        ReaderInput input = new ReaderInput(new StringReader(new String(chars)), 16);
+        SpanResult result = and(repeatUntil(anyExcept('*')), literal('*')).parseSpans(input, new SpanBuffer());
+
+        assertThat(result.isMatched(), equalTo(true));
+        assertThat(result.end(0), equalTo(chars.length - 1));
+        //and holds a mark at the start, so the whole input is still there
+        assertThat(result.getString(0).length(), equalTo(chars.length - 1));
+
+        input = new ReaderInput(new StringReader(new String(chars)), 16);
+        result = repeatUntil(anyExcept('*')).parseSpans(input, new SpanBuffer());
+        assertThat(result.size(), equalTo(chars.length - 1));
+        assertThat(result.getString(result.size() - 1), equalTo("a"));
+    }
+
+    @Test
+    public void runsLongerThanTheWindow() {
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'a');
+        String text = new String(chars) + "*";
+
+        ParserResult result = takeWhile(CharClass.of("a")).parse(new ReaderInput(new StringReader(text), 4));
+        assertThat(result.getParsed().get(), equalTo(Arrays.asList(new String(chars))));
+        assertThat(result.getRest().get(), equalTo("*"));
+
+        result = skipUntil(CharClass.of("*")).parse(new ReaderInput(new StringReader(text), 4));
+        assertThat(result.getParsed().get(), equalTo(Arrays.asList(new String(chars))));
+        assertThat(result.getRest().get(), equalTo("*"));
+    }
+
+    @Test
+    public void scansLongerThanTheWindow() {
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'a');
+        String text = new String(chars) + "*";
+
+        ParserResult result = scanUntilAny('*').parse(new ReaderInput(new StringReader(text), 4));
+        assertThat(result.getParsed().get(), equalTo(Arrays.asList(new String(chars))));
+        assertThat(result.getRest().get(), equalTo("*"));
+
+        //compile turns this into a scan
+        Parser compiled = and(merge(repeatUntil(anyExcept('*'))), literal('*')).compile();
+        result = compiled.parse(new ReaderInput(new StringReader(text), 4));
+        assertThat(result.getParsed().get(), equalTo(Arrays.asList(new String(chars), "*")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void discardedSpans() {
+        char[] chars = new char[100];
+        Arrays.fill(chars, 'a');
+        ReaderInput input = new ReaderInput(new StringReader(new String(chars)), 16);
+        repeatUntil(any()).parseSpans(input, new SpanBuffer()).getString(0);
+    }
+}
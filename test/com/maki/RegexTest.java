@@ -0,0 +1,103 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class RegexTest {
+    private static final Pattern URL = Pattern.compile("https?://[\\w.-]+(/[\\w./?=&%-]*)?");
+    private static final Pattern ENTITY = Pattern.compile("&(#\\d+|\\w+);");
+
+    @Test
+    public void matchesAtTheIndex() {
+        Parser parser = and(literal('<'), regex(URL), literal('>'));
+        ParserResult result = parser.parse("<http://example.com/a?b=1> rest");
+
+        assertThat(result.getParsed().get().get(1), equalTo("http://example.com/a?b=1"));
+        assertThat(result.getRest().get(), equalTo(" rest"));
+        assertThat(regex(URL).parse("see http://example.com").getParsed().isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void oneSpan() {
+        Parser parser = repeatUntil(or(regex(ENTITY), takeWhile(CharClass.of("&").negate())));
+        SpanResult result = parser.parseSpans("a &amp; b &#38;");
+
+        assertThat(result.size(), equalTo(4));
+        assertThat(result.getString(1), equalTo("&amp;"));
+        assertThat(result.getString(3), equalTo("&#38;"));
+        assertThat(parser.interpret("a &amp; b &#38;").getParsed(), equalTo(result.getParsed()));
+    }
+
+    @Test
+    public void boundedStringInput() {
+        SpanResult result = regex(Pattern.compile("\\d+")).parseSpans(new StringInput("x12345", 1, 4),
+                new SpanBuffer());
+        assertThat(result.getString(0), equalTo("123"));
+    }
+
+    @Test
+    public void inputsWithoutACharSequence() {
+        StringBuilder longUrl = new StringBuilder("http://example.com/");
+        for (int i = 0; i < 300; i++) {
+            longUrl.append('a');
+        }
+        String text = longUrl + " after";
+
+        ParserResult fromReader = regex(URL).parse(new StringReader(text));
+        assertThat(fromReader.getParsed().get().get(0), equalTo(longUrl.toString()));
+
+        Utf8Input bytes = new Utf8Input(("caf\u00e9 " + text).getBytes(StandardCharsets.UTF_8));
+        ParserResult fromBytes = and(regex(Pattern.compile("\\w+\u00e9 ")), regex(URL)).parse(bytes);
+        assertThat(fromBytes.getParsed().get().get(1), equalTo(longUrl.toString()));
+        assertThat(fromBytes.getRest().get().toString(), equalTo(" after"));
+
+        Utf8Input miss = new Utf8Input("ftp://x".getBytes(StandardCharsets.UTF_8));
+        assertThat(regex(URL).parse(miss).getParsed().isPresent(), equalTo(false));
+        assertThat(miss.getIndex(), equalTo(0));
+    }
+
+    @Test
+    public void describedAndCompiled() {
+        Parser parser = merge(and(regex(ENTITY), literal('!')));
+        assertThat(parser.toString(), equalTo("merge(and(regex(\"&(#\\d+|\\w+);\"), literal('!')))"));
+        assertThat(parser.compile().parse("&lt;!").getParsed(), equalTo(parser.parse("&lt;!").getParsed()));
+    }
+
+    @Test
+    public void sharedAcrossThreads() throws Exception {
+        Parser parser = regex(Pattern.compile("\\d{4}-\\d{2}-\\d{2}"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int year = 2000 + t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        String date = year + "-0" + (i % 9 + 1) + "-15";
+                        if (!parser.parseSpans(date + " text").getString(0).equals(date)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertThat(future.get(), equalTo(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
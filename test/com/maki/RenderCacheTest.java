@@ -0,0 +1,120 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class RenderCacheTest {
+
+    @Test
+    public void secondRenderIsAHit() {
+        RenderCache cache = new RenderCache(1 << 20);
+        String html = cache.render("some *text*");
+        assertThat(html, equalTo("<p>some <em>text</em></p>\n"));
+        assertThat(cache.render("some *text*"), equalTo(html));
+        assertThat(cache.getHits(), equalTo(1L));
+        assertThat(cache.getMisses(), equalTo(1L));
+        assertThat(cache.size(), equalTo(1));
+    }
+
+    @Test
+    public void grammarIsPartOfTheKey() {
+        RenderCache cache = new RenderCache(1 << 20);
+        AtomicInteger renders = new AtomicInteger();
+        assertThat(cache.get("upper", "post", post -> {
+            renders.incrementAndGet();
+            return post.toUpperCase();
+        }), equalTo("POST"));
+        assertThat(cache.get("upper", "post", post -> "not called"), equalTo("POST"));
+        assertThat(cache.get("lower", "post", post -> post), equalTo("post"));
+        assertThat(renders.get(), equalTo(1));
+    }
+
+    @Test
+    public void collidingPostsDontShareText() {
+        //contentHash is invertible, so a second block can be picked to cancel the difference in the first
+        long seed = 0x9E3779B97F4A7C15L ^ ~8L;
+        long first = 'a' | (long) 'b' << 16 | (long) 'c' << 32 | (long) 'd' << 48;
+        long other = 'w' | (long) 'x' << 16 | (long) 'y' << 32 | (long) 'z' << 48;
+        long second = 'e' | (long) 'f' << 16 | (long) 'g' << 32 | (long) 'h' << 48;
+        long forged = mix(seed ^ first) ^ second ^ mix(seed ^ other);
+        String post = "abcdefgh";
+        String collision = "wxyz" + (char) forged + (char) (forged >>> 16) + (char) (forged >>> 32)
+                + (char) (forged >>> 48);
+        assertThat(Utility.contentHash(collision), equalTo(Utility.contentHash(post)));
+
+        RenderCache cache = new RenderCache(1 << 20);
+        assertThat(cache.get("g", post, p -> "first"), equalTo("first"));
+        assertThat(cache.get("g", collision, p -> "second"), equalTo("second"));
+        assertThat(cache.get("g", post, p -> "again"), equalTo("first"));
+        assertThat(cache.get("g", collision, p -> "again"), equalTo("second"));
+        assertThat(cache.size(), equalTo(2));
+    }
+
+    private static long mix(long hash) {
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Test
+    public void boundedByBytes() {
+        RenderCache cache = new RenderCache(64 * 1024, 1);
+        StringBuilder post = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            post.append('x');
+        }
+        for (int i = 0; i < 200; i++) {
+            cache.get("g", post.toString() + i, p -> p);
+            assertThat(cache.getBytes() <= cache.getMaxBytes(), equalTo(true));
+        }
+        assertThat(cache.getEvictions() > 0, equalTo(true));
+        assertThat(cache.size() + cache.getEvictions(), equalTo(200L));
+
+        //The most recently used post is still there, the first one isn't
+        cache.get("g", post.toString() + 199, p -> "rendered again");
+        assertThat(cache.get("g", post.toString() + 0, p -> "rendered again"), equalTo("rendered again"));
+
+        //Too big to ever fit, so it isn't cached at all
+        String huge = new String(new char[64 * 1024]);
+        cache.get("g", huge, p -> p);
+        assertThat(cache.get("g", huge, p -> "again"), equalTo("again"));
+    }
+
+    @Test
+    public void concurrentUse() throws Exception {
+        RenderCache cache = new RenderCache(16 * 1024);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        String post = "post **" + (i % 300) + "**";
+                        if (!cache.render(post).equals("<p>post <strong>" + (i % 300) + "</strong></p>\n")) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                assertThat(future.get(), equalTo(true));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(cache.getHits() + cache.getMisses(), equalTo(16000L));
+        assertThat(cache.getBytes() <= cache.getMaxBytes(), equalTo(true));
+    }
+}
@@ -0,0 +1,84 @@
+package com.maki;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class SiteBuilderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void write(Path file, String text) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void rendersOnlyWhatChanged() throws IOException {
+        Path source = folder.newFolder("source").toPath();
+        Path output = folder.newFolder("output").toPath();
+        for (int i = 0; i < 50; i++) {
+            write(source.resolve("posts/" + i + ".md"), "# Post " + i + "\n\nSome *text*");
+        }
+        write(source.resolve("notes.txt"), "not a post");
+
+        SiteBuilder.Result first = new SiteBuilder("1", 4).build(source, output);
+        assertThat(first.getRendered(), equalTo(50));
+        assertThat(first.getSkipped(), equalTo(0));
+        assertThat(read(output.resolve("posts/7.html")), equalTo("<h1>Post 7</h1>\n<p>Some <em>text</em></p>\n"));
+        assertThat(Files.exists(output.resolve("notes.html")), equalTo(false));
+
+        write(source.resolve("posts/7.md"), "changed");
+        Files.delete(source.resolve("posts/8.md"));
+        Files.delete(output.resolve("posts/9.html"));
+        SiteBuilder.Result second = new SiteBuilder("1", 4).build(source, output);
+        assertThat(second.getRendered(), equalTo(2));
+        assertThat(second.getSkipped(), equalTo(47));
+        assertThat(second.getRemoved(), equalTo(1));
+        assertThat(read(output.resolve("posts/7.html")), equalTo("<p>changed</p>\n"));
+        assertThat(Files.exists(output.resolve("posts/8.html")), equalTo(false));
+        assertThat(Files.exists(output.resolve("posts/9.html")), equalTo(true));
+
+        SiteBuilder.Result unchanged = new SiteBuilder("1").build(source, output);
+        assertThat(unchanged.getRendered(), equalTo(0));
+        assertThat(unchanged.getSkipped(), equalTo(49));
+    }
+
+    @Test
+    public void newGrammarRendersEverything() throws IOException {
+        Path source = folder.newFolder("source").toPath();
+        Path output = folder.newFolder("output").toPath();
+        write(source.resolve("a.md"), "a");
+        write(source.resolve("b.md"), "b");
+
+        new SiteBuilder("1").build(source, output);
+        SiteBuilder.Result result = new SiteBuilder("2").build(source, output);
+        assertThat(result.getRendered(), equalTo(2));
+        assertThat(new SiteBuilder("2").build(source, output).getRendered(), equalTo(0));
+    }
+
+    @Test
+    public void contentHash() {
+        byte[] bytes = "some post text that is longer than eight bytes".getBytes(StandardCharsets.UTF_8);
+        long hash = Utility.contentHash(bytes);
+        assertThat(Utility.contentHash(bytes.clone()), equalTo(hash));
+        for (int i = 0; i < bytes.length; i++) {
+            byte[] changed = bytes.clone();
+            changed[i] ^= 1;
+            assertThat(Utility.contentHash(changed) == hash, equalTo(false));
+        }
+        assertThat(Utility.contentHash(new byte[0]) == Utility.contentHash(new byte[1]), equalTo(false));
+    }
+}
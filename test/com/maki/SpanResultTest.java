@@ -0,0 +1,69 @@
+package com.maki;
+
+import org.junit.Test;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class SpanResultTest {
+
+    @Test
+    public void literalSpan() {
+        SpanResult result = literal('a').parseSpans("aab");
+
+        assertThat(result.isMatched(), equalTo(true));
+        assertThat(result.size(), equalTo(1));
+        assertThat(result.start(0), equalTo(0));
+        assertThat(result.end(0), equalTo(1));
+        assertThat(result.getString(0), equalTo("a"));
+    }
+
+    @Test
+    public void andSpans() {
+        SpanResult result = and(literal('a'), merge(and(literal('b'), literal('c'))), literal('d')).parseSpans("abcde");
+
+        assertThat(result.size(), equalTo(3));
+        assertThat(result.getString(0), equalTo("a"));
+        assertThat(result.getString(1), equalTo("bc"));
+        assertThat(result.getString(2), equalTo("d"));
+        assertThat(result.getRest().get(), equalTo("e"));
+    }
+
+    @Test
+    public void failureRollsBack() {
+        Parser parser = or(and(literal('a'), literal('b')), and(literal('a'), literal('c')));
+        SpanResult result = parser.parseSpans("acd");
+
+        assertThat(result.size(), equalTo(2));
+        assertThat(result.start(1), equalTo(1));
+        assertThat(result.getString(1), equalTo("c"));
+    }
+
+    @Test
+    public void repeatFailRewinds() {
+        SpanResult result = repeat(literal('a'), 2).parseSpans("ab");
+
+        assertThat(result.isMatched(), equalTo(false));
+        assertThat(result.size(), equalTo(0));
+        assertThat(result.getRest().get(), equalTo("ab"));
+    }
+
+    @Test
+    public void matchesListMode() {
+        Parser parser = and(repeatUntil(anyExcept('*')), merge(repeat(any(), 2)));
+        String input = "ab*cd";
+
+        assertThat(parser.parseSpans(input).getParsed(), equalTo(parser.parse(input).getParsed()));
+    }
+
+    @Test
+    public void bufferIsReused() {
+        SpanBuffer buffer = new SpanBuffer(1);
+        Parser parser = repeatUntil(literal('a'));
+
+        assertThat(parser.parseSpans("aaab", buffer).size(), equalTo(3));
+        assertThat(parser.parseSpans("ab", buffer).size(), equalTo(1));
+        assertThat(buffer.size(), equalTo(1));
+    }
+}
@@ -0,0 +1,134 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static com.maki.Parser.*;
+import static com.maki.TypedParser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class TypedParserTest {
+
+    //A tiny syntax tree, the sort of thing a renderer wants
+    private interface Node {
+    }
+
+    private static final class Text implements Node {
+        final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Text && ((Text) o).text.equals(text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+    }
+
+    private static final class Bold implements Node {
+        final String text;
+
+        Bold(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bold && ((Bold) o).text.equals(text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+    }
+
+    private static TypedParser<List<Node>> inline() {
+        TypedParser<Node> bold = between(literal('*'), text(skipUntil(CharClass.of("*"))), literal('*'))
+                .map(Bold::new);
+        TypedParser<Node> plain = text(takeWhile(CharClass.of("*").negate())).map(Text::new);
+        TypedParser<Node> star = text(literal('*')).map(Text::new);
+        return many(TypedParser.<Node>or(bold, plain, star), Collectors.toList());
+    }
+
+    @Test
+    public void buildsNodes() {
+        List<Node> nodes = inline().parse("some *bold* text *").get();
+        assertThat(nodes, equalTo(Arrays.<Node>asList(new Text("some "), new Bold("bold"), new Text(" text "),
+                new Text("*"))));
+    }
+
+    @Test
+    public void seqRewinds() {
+        TypedParser<Pair<String, List<String>>> parser = seq(text(literal("ab")), list(repeat(any(), 2)));
+        assertThat(parser.parse("abcd").get(), equalTo(new Pair<>("ab", Arrays.asList("c", "d"))));
+
+        StringInput input = new StringInput("abc");
+        assertThat(parser.parse(input), equalTo(Optional.empty()));
+        assertThat(input.getIndex(), equalTo(0));
+    }
+
+    @Test
+    public void manyCollects() {
+        TypedParser<Integer> digit = text(range('0', '9')).map(Integer::parseInt);
+        TypedParser<Integer> sum = many(digit, Collectors.summingInt(i -> i));
+        assertThat(sum.parse("1234x").get(), equalTo(10));
+        assertThat(sum.parse("x").get(), equalTo(0));
+    }
+
+    @Test
+    public void orDispatches() {
+        TypedParser<String> parser = TypedParser.or(text(literal('a')).map(a -> "A"), text(any()));
+        assertThat(parser.parse("a").get(), equalTo("A"));
+        assertThat(parser.parse("b").get(), equalTo("b"));
+        assertThat(parser.firstSet().isPresent(), equalTo(true));
+    }
+
+    @Test
+    public void commitsStayInside() {
+        TypedParser<String> parser = text(and(literal('a'), commit(), literal('b')));
+        assertThat(parser.parse("ac"), equalTo(Optional.empty()));
+    }
+
+    @Test
+    public void textLongerThanTheReaderWindow() {
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        ReaderInput input = new ReaderInput(new StringReader(new String(chars) + "!"), 16);
+        Optional<String> result = text(takeWhile(CharClass.range('a', 'z'))).parse(input);
+        assertThat(result.get(), equalTo(new String(chars)));
+        assertThat(input.rest().get(), equalTo("!"));
+    }
+
+    @Test
+    public void memoSharedByBothModes() {
+        Parser word = memo(takeWhile(CharClass.range('a', 'z')));
+        //Span mode runs the memo first, then list mode reaches it at the same position
+        TypedParser<Object> spansFirst = TypedParser.or(seq(text(word), text(literal('!'))), list(word));
+        assertThat(spansFirst.parse("hello?").get(), equalTo(Arrays.asList("hello")));
+
+        //And the other way round
+        TypedParser<Object> listFirst = TypedParser.or(seq(list(word), text(literal('!'))), text(word));
+        assertThat(listFirst.parse("hello?").get(), equalTo("hello"));
+
+        MemoTable table = new MemoTable();
+        table.putList(1, 0, 5, Arrays.asList("hello"));
+        assertThat(table.findSpans(1, 0), equalTo(-1));
+        SpanBuffer spans = new SpanBuffer();
+        spans.add(0, 5);
+        table.putSpans(2, 0, 5, true, spans, 0);
+        assertThat(table.findList(2, 0), equalTo(-1));
+    }
+}
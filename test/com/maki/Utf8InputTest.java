@@ -0,0 +1,99 @@
+package com.maki;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+
+import static com.maki.Parser.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+
+public class Utf8InputTest {
+
+    private static Utf8Input input(String text) {
+        return new Utf8Input(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void anyReadsWholeChars() {
+        ParserResult result = any().parse(input("\u8900as"));
+        assertThat(result.getParsed().get().get(0), equalTo("\u8900"));
+        assertThat(result.getRest().get().toString(), equalTo("as"));
+    }
+
+    @Test
+    public void literalsAndAnyExceptMatchByChar() {
+        Parser parser = and(literal("\u00e9t\u00e9"), merge(repeatUntil(anyExcept('\u8900'))), literal('\u8900'));
+        List<String> result = parser.parse(input("\u00e9t\u00e9 caf\u00e9 \ud83d\ude00\u8900!")).getParsed().get();
+
+        assertThat(result.get(0), equalTo("\u00e9t\u00e9"));
+        assertThat(result.get(1), equalTo(" caf\u00e9 \ud83d\ude00"));
+        assertThat(result.get(2), equalTo("\u8900"));
+        assertThat(literal("\u00e9x").parse(input("\u00e9t")).getParsed().isPresent(), equalTo(false));
+    }
+
+    @Test
+    public void bulkScans() {
+        Utf8Input input = input("ab\u00e9cd\ud83d\ude00e*f");
+        assertThat(input.advanceWhile(CharClass.range('a', 'z')), equalTo(2));
+        assertThat(input.advanceWhile(CharClass.of("*").negate()), equalTo(6));
+        assertThat(input.read(), equalTo('*'));
+
+        input.setIndex(0);
+        assertThat(input.advanceUntilAny(new char[]{'\ud83d'}), equalTo(5));
+        assertThat(input.read(), equalTo('\ud83d'));
+        assertThat(input.advanceUntilAny(new char[]{'f'}), equalTo(4));
+        assertThat(input.hasNext(), equalTo(true));
+    }
+
+    @Test
+    public void wordAtATimeScanMatchesStrings() {
+        Random random = new Random(20);
+        String alphabet = "abc *`[\n\u00e9\u8900";
+        char[] delimiters = {'*', '`', '[', '\n'};
+        for (int trial = 0; trial < 500; trial++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                //Mostly plain letters, so there are long runs to skip
+                text.append(random.nextInt(4) == 0 ? alphabet.charAt(random.nextInt(alphabet.length())) : 'x');
+            }
+            StringInput expected = new StringInput(text.toString());
+            Utf8Input actual = input(text.toString());
+            while (expected.hasNext()) {
+                assertThat(text.toString(), actual.advanceUntilAny(delimiters),
+                        equalTo(expected.advanceUntilAny(delimiters)));
+                assertThat(actual.hasNext(), equalTo(expected.hasNext()));
+                if (expected.hasNext()) {
+                    assertThat(actual.read(), equalTo(expected.read()));
+                    actual.advance();
+                    expected.advance();
+                }
+            }
+            assertThat(actual.hasNext(), equalTo(false));
+        }
+    }
+
+    @Test
+    public void spansOverBytes() {
+        Parser parser = and(takeWhile(CharClass.range('a', 'z')), literal(' '), skipUntil(CharClass.of("!")));
+        Utf8Input input = input("cafe \u8900\u8900!");
+        SpanResult result = parser.parseSpans(input, new SpanBuffer());
+        assertThat(result.isMatched(), equalTo(true));
+        assertThat(result.getString(2), equalTo("\u8900\u8900"));
+    }
+
+    @Test
+    public void bufferFromItsPosition() {
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put("xx\u00e9a".getBytes(StandardCharsets.UTF_8));
+        direct.flip();
+        direct.position(2);
+        ParserResult result = and(literal('\u00e9'), literal('a')).parse(new Utf8Input(direct));
+        assertThat(result.getParsed().isPresent(), equalTo(true));
+        assertThat(direct.position(), equalTo(2));
+    }
+}